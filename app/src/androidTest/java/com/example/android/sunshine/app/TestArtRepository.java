@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.io.File;
+
+/*
+    ArtRepository is tried with an "art pack" of the app's own art, as android.resource URIs, so
+    it fetches without a network, and with one on an address that never answers, standing in for
+    a slow art server.  What the notification would wait for the art is logged for a cold and a
+    warm cache; before, it waited for the art server every time.
+ */
+public class TestArtRepository extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestArtRepository.class.getSimpleName();
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+    // Not routable, so a connection just hangs until it times out.
+    private static final String UNREACHABLE_ART_PACK = "http://10.255.255.1/art_%s.png";
+
+    private File mDirectory;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test_art");
+        deleteDirectory();
+        mArtPack = "android.resource://" + mContext.getPackageName() + "/drawable/art_%s";
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testMissDoesNotWaitForTheArtServer() {
+        ArtRepository repository = new ArtRepository(mContext, mDirectory);
+
+        long start = SystemClock.elapsedRealtime();
+        Bitmap art = repository.getArt(800, UNREACHABLE_ART_PACK, WIDTH, HEIGHT);
+        long coldMillis = SystemClock.elapsedRealtime() - start;
+
+        assertNotNull("Error: no built-in art on a miss", art);
+        assertEquals(1, repository.getMissCount());
+        assertTrue("Error: a miss took " + coldMillis + "ms", coldMillis < 1000);
+        Log.d(LOG_TAG, "Cold cache, unreachable art server: notification art in "
+                + coldMillis + "ms");
+    }
+
+    public void testFetchedArtIsServedFromDisk() {
+        final ArtRepository repository = new ArtRepository(mContext, mDirectory);
+        repository.getArt(500, mArtPack, WIDTH, HEIGHT);
+        assertEquals(1, repository.getMissCount());
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return repository.isCached(500, mArtPack, WIDTH, HEIGHT)
+                        && repository.getPendingCount() == 0;
+            }
+        }.run();
+        assertEquals(1, repository.getFetchCount());
+        // Same art, so the same file.
+        assertTrue(repository.isCached(501, mArtPack, WIDTH, HEIGHT));
+        assertFalse("Error: art for another size was stored under this one",
+                repository.isCached(500, mArtPack, WIDTH * 2, HEIGHT * 2));
+
+        long start = SystemClock.elapsedRealtime();
+        Bitmap art = repository.getArt(501, mArtPack, WIDTH, HEIGHT);
+        long warmMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(1, repository.getHitCount());
+        assertEquals("Error: art wasn't fitted to " + WIDTH + "x" + HEIGHT,
+                WIDTH, Math.max(art.getWidth(), art.getHeight()));
+
+        // A repository made later, as in another process, finds it too.
+        ArtRepository later = new ArtRepository(mContext, mDirectory);
+        assertNotNull(later.getArt(500, mArtPack, WIDTH, HEIGHT));
+        assertEquals(1, later.getHitCount());
+
+        Log.d(LOG_TAG, "Warm cache: notification art in " + warmMillis + "ms");
+    }
+
+    public void testPrefetchFetchesTheWholePack() {
+        final ArtRepository repository = new ArtRepository(mContext, mDirectory);
+        repository.prefetch(mArtPack, WIDTH, HEIGHT);
+
+        new PollingCheck(10000) {
+            @Override
+            protected boolean check() {
+                return repository.getPendingCount() == 0;
+            }
+        }.run();
+        assertEquals(0, repository.getFailedCount());
+        for (int weatherId = WeatherConditions.MIN_ID; weatherId <= WeatherConditions.MAX_ID;
+                weatherId++) {
+            if (Utility.getArtResourceForWeatherCondition(weatherId) != -1) {
+                assertTrue("Error: no art for " + weatherId + " after prefetching",
+                        repository.isCached(weatherId, mArtPack, WIDTH, HEIGHT));
+            }
+        }
+
+        int fetched = repository.getFetchCount();
+        repository.prefetch(mArtPack, WIDTH, HEIGHT);
+        assertEquals("Error: art on disk was fetched again", 0, repository.getPendingCount());
+        assertEquals(fetched, repository.getFetchCount());
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
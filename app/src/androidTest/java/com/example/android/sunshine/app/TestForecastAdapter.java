@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Binds the forecast list the way it used to be bound, formatting from the cursor, and the way
+    it is now, from the loader's ForecastItems, and checks both show the same thing.  The bind
+    times only show up in logcat, for 14 and 365 days.
+
+    Also checks that a reload only notifies the rows that changed, and that the selection
+    follows its row when the rows before it go.
+
+    The fling numbers bind FLING_ROWS_PER_FRAME rows per frame, about what a fast fling brings
+    on screen, and count the frames whose binds alone take more than FRAME_BIND_BUDGET_NANOS,
+    which leaves the rest of the 16ms frame for layout and drawing.
+ */
+public class TestForecastAdapter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final String LOCATION = "99705";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int FLING_ROWS_PER_FRAME = 4;
+    private static final long FRAME_BIND_BUDGET_NANOS = 4 * 1000 * 1000;
+
+    private Context mThemedContext;
+    private RecyclerView mRecyclerView;
+    private ForecastAdapter mAdapter;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mThemedContext = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        mRecyclerView = new RecyclerView(mThemedContext);
+        mAdapter = new ForecastAdapter(mThemedContext, null, new View(mThemedContext),
+                AbsListView.CHOICE_MODE_NONE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testItemsMatchCursorBinding() {
+        insertDays(14);
+        List<ForecastItem> items = loadItems();
+        assertEquals(14, items.size());
+        mAdapter.swapItems(items);
+
+        ForecastAdapter.ForecastAdapterViewHolder fromItem = createViewHolder(1);
+        ForecastAdapter.ForecastAdapterViewHolder fromCursor = createViewHolder(1);
+        Cursor cursor = query();
+        try {
+            for (int position = 0; position < items.size(); position++) {
+                cursor.moveToPosition(position);
+                mAdapter.onBindViewHolder(fromItem, position);
+                bindFromCursor(fromCursor, cursor, position == 0);
+
+                assertEquals(fromCursor.mDateView.getText(), fromItem.mDateView.getText());
+                assertEquals(fromCursor.mDescriptionView.getText(),
+                        fromItem.mDescriptionView.getText());
+                assertEquals(fromCursor.mDescriptionView.getContentDescription(),
+                        fromItem.mDescriptionView.getContentDescription());
+                assertEquals(fromCursor.mHighTempView.getText(), fromItem.mHighTempView.getText());
+                assertEquals(fromCursor.mHighTempView.getContentDescription(),
+                        fromItem.mHighTempView.getContentDescription());
+                assertEquals(fromCursor.mLowTempView.getText(), fromItem.mLowTempView.getText());
+                assertEquals(fromCursor.mLowTempView.getContentDescription(),
+                        fromItem.mLowTempView.getContentDescription());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testUnchangedReloadNotifiesNothing() {
+        insertDays(14);
+        mAdapter.swapItems(loadItems());
+        RecordingObserver observer = new RecordingObserver();
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mAdapter.swapResult(ForecastListLoader.diff(mAdapter.getItems(), loadItems()));
+        assertEquals("[]", observer.events.toString());
+    }
+
+    public void testOnlyTheChangedRowIsNotified() {
+        insertDays(14);
+        mAdapter.swapItems(loadItems());
+        RecordingObserver observer = new RecordingObserver();
+        mAdapter.registerAdapterDataObserver(observer);
+
+        ContentValues hotter = createDay(mAdapter.getItems().get(5).date, 5);
+        hotter.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{hotter});
+
+        mAdapter.swapResult(ForecastListLoader.diff(mAdapter.getItems(), loadItems()));
+        assertEquals("[change 5+1]", observer.events.toString());
+    }
+
+    /*
+        A result diffed against some other list than the one showing can't be applied as a diff.
+     */
+    public void testStaleResultRefreshesEverything() {
+        insertDays(14);
+        List<ForecastItem> older = loadItems();
+        mAdapter.swapItems(loadItems());
+        RecordingObserver observer = new RecordingObserver();
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mAdapter.swapResult(ForecastListLoader.diff(older, loadItems()));
+        assertEquals("[all]", observer.events.toString());
+    }
+
+    public void testSelectionFollowsItsRow() {
+        insertDays(14);
+        ForecastAdapter adapter = new ForecastAdapter(mThemedContext, null,
+                new View(mThemedContext), AbsListView.CHOICE_MODE_SINGLE);
+        adapter.swapItems(loadItems());
+        long selectedDate = adapter.getItems().get(3).date;
+
+        // Select the fourth day the way a saved instance state would.
+        ItemChoiceManager saved = new ItemChoiceManager(adapter);
+        saved.mCheckStates.put(3, true);
+        saved.mCheckedIdStates.put(selectedDate, 3);
+        Bundle state = new Bundle();
+        saved.onSaveInstanceState(state);
+        adapter.onRestoreInstanceState(state);
+        assertEquals(3, adapter.getSelectedItemPosition());
+
+        // Yesterday's rows are deleted once the day is over.
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(adapter.getItems().get(0).date)});
+        RecordingObserver observer = new RecordingObserver();
+        adapter.registerAdapterDataObserver(observer);
+        adapter.swapResult(ForecastListLoader.diff(adapter.getItems(), loadItems()));
+
+        assertTrue(observer.events.contains("remove 0+1"));
+        assertEquals(2, adapter.getSelectedItemPosition());
+        assertEquals(selectedDate, adapter.getItemId(2));
+    }
+
+    /*
+        When yesterday's row goes, the rows below only move up.  Only the new first row is bound
+        again, for the today layout.
+     */
+    public void testRolloverOnlyRebindsTheFirstRow() {
+        insertDays(14);
+        mAdapter.swapItems(loadItems());
+        long tomorrow = mAdapter.getItems().get(1).date;
+        String transitionName = mAdapter.getItems().get(1).transitionName;
+        RecordingObserver observer = new RecordingObserver();
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mAdapter.getItems().get(0).date)});
+        mAdapter.swapResult(ForecastListLoader.diff(mAdapter.getItems(), loadItems()));
+
+        assertEquals("[remove 0+1, change 0+1]", observer.events.toString());
+        assertEquals(tomorrow, mAdapter.getItems().get(0).date);
+        assertEquals("Error: a row's transition name changed when it moved",
+                transitionName, mAdapter.getItems().get(0).transitionName);
+    }
+
+    public void testBindBenchmark14Days() {
+        benchmark(14);
+    }
+
+    public void testBindBenchmark365Days() {
+        benchmark(365);
+    }
+
+    private void benchmark(int days) {
+        insertDays(days);
+
+        long start = System.nanoTime();
+        List<ForecastItem> items = loadItems();
+        long buildNanos = System.nanoTime() - start;
+        assertEquals(days, items.size());
+        mAdapter.swapItems(items);
+
+        ForecastAdapter.ForecastAdapterViewHolder holder = createViewHolder(1);
+        Cursor cursor = query();
+        long[] cursorBinds = new long[days];
+        long[] itemBinds = new long[days];
+        try {
+            // Once through each first, so neither pays for warming up.
+            for (int position = 0; position < days; position++) {
+                cursor.moveToPosition(position);
+                bindFromCursor(holder, cursor, position == 0);
+                mAdapter.onBindViewHolder(holder, position);
+            }
+
+            for (int position = 0; position < days; position++) {
+                start = System.nanoTime();
+                cursor.moveToPosition(position);
+                bindFromCursor(holder, cursor, position == 0);
+                cursorBinds[position] = System.nanoTime() - start;
+            }
+            for (int position = 0; position < days; position++) {
+                start = System.nanoTime();
+                mAdapter.onBindViewHolder(holder, position);
+                itemBinds[position] = System.nanoTime() - start;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.d(LOG_TAG, days + " days, items built in " + buildNanos / 1000 + "us off the main thread");
+        Log.d(LOG_TAG, days + " days, cursor bind: " + describe(cursorBinds));
+        Log.d(LOG_TAG, days + " days, item bind: " + describe(itemBinds));
+    }
+
+    private String describe(long[] binds) {
+        long total = 0;
+        long max = 0;
+        for (long bind : binds) {
+            total += bind;
+            max = Math.max(max, bind);
+        }
+
+        int frames = 0;
+        int jankyFrames = 0;
+        for (int first = 0; first < binds.length; first += FLING_ROWS_PER_FRAME) {
+            long frame = 0;
+            for (int i = first; i < Math.min(binds.length, first + FLING_ROWS_PER_FRAME); i++) {
+                frame += binds[i];
+            }
+            frames++;
+            if (frame > FRAME_BIND_BUDGET_NANOS) {
+                jankyFrames++;
+            }
+        }
+        return "mean " + total / binds.length / 1000 + "us, max " + max / 1000 + "us, "
+                + jankyFrames + " of " + frames + " fling frames over budget";
+    }
+
+    /*
+        What onBindViewHolder did before the loader formatted everything.
+     */
+    private void bindFromCursor(ForecastAdapter.ForecastAdapterViewHolder holder, Cursor cursor,
+                                boolean useLongToday) {
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        holder.mIconView.setImageResource(useLongToday
+                ? Utility.getArtResourceForWeatherCondition(weatherId)
+                : Utility.getIconResourceForWeatherCondition(weatherId));
+        holder.mDateView.setText(Utility.getFriendlyDayString(mThemedContext,
+                cursor.getLong(ForecastFragment.COL_WEATHER_DATE), useLongToday));
+        String description = Utility.getStringForWeatherCondition(mThemedContext, weatherId);
+        holder.mDescriptionView.setText(description);
+        holder.mDescriptionView.setContentDescription(
+                mThemedContext.getString(R.string.a11y_forecast, description));
+        String high = Utility.formatTemperature(mThemedContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        holder.mHighTempView.setText(high);
+        holder.mHighTempView.setContentDescription(
+                mThemedContext.getString(R.string.a11y_high_temp, high));
+        String low = Utility.formatTemperature(mThemedContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        holder.mLowTempView.setText(low);
+        holder.mLowTempView.setContentDescription(
+                mThemedContext.getString(R.string.a11y_low_temp, low));
+    }
+
+    private ForecastAdapter.ForecastAdapterViewHolder createViewHolder(int viewType) {
+        return mAdapter.onCreateViewHolder(mRecyclerView, viewType);
+    }
+
+    private List<ForecastItem> loadItems() {
+        // The built-in art, so nothing goes out to the network while binding.
+        Cursor cursor = query();
+        try {
+            List<ForecastItem> items = new ArrayList<ForecastItem>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                items.add(new ForecastItem(mThemedContext, cursor, true));
+            }
+            return items;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor query() {
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION, System.currentTimeMillis()),
+                ForecastFragment.FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private void insertDays(int days) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        mLocationId = locationId;
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            values[day] = createDay(today + day * DAY_IN_MILLIS, day);
+        }
+        assertEquals(days, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    private ContentValues createDay(long date, int day) {
+        int[] conditions = {800, 801, 500, 200, 600, 701, 300};
+        ContentValues weather = new ContentValues();
+        weather.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        weather.put(WeatherEntry.COLUMN_DATE, date);
+        weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weather.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + day % 10);
+        weather.put(WeatherEntry.COLUMN_MIN_TEMP, 5 + day % 10);
+        weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weather.put(WeatherEntry.COLUMN_WEATHER_ID, conditions[day % conditions.length]);
+        return weather;
+    }
+
+    private static class RecordingObserver extends RecyclerView.AdapterDataObserver {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onChanged() {
+            events.add("all");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            events.add("change " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            onItemRangeChanged(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            events.add("insert " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            events.add("remove " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            events.add("move " + fromPosition + ">" + toPosition);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/*
+    FriendlyDateFormatter has to say exactly what the old Utility date helpers said, which are
+    copied here with "now" passed in, for any time zone and on either side of a daylight saving
+    change.  The benchmark only logs; it compares both on two weeks of forecast dates.
+ */
+public class TestFriendlyDateFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestFriendlyDateFormatter.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+
+    private static final String[] TIME_ZONES = {
+            "UTC",
+            "America/New_York",
+            "America/Los_Angeles",
+            "Europe/London",
+            "Atlantic/Azores",
+            "Asia/Kolkata",
+            "Australia/Lord_Howe",
+            "Pacific/Kiritimati",
+            "Pacific/Pago_Pago"
+    };
+
+    // Instants either side of which some of those zones change their clocks.
+    private static final long[] NOWS = {
+            1425798000000L, // 2015-03-08 07:00 UTC, New York springs forward
+            1427590800000L, // 2015-03-29 01:00 UTC, London springs forward
+            1446357600000L, // 2015-11-01 06:00 UTC, New York falls back
+            1443886200000L, // 2015-10-03 15:30 UTC, Lord Howe springs forward half an hour
+            1419033600000L, // 2014-12-20 00:00 UTC
+            1435708800000L  // 2015-07-01 00:00 UTC
+    };
+
+    private static final int BENCHMARK_ROUNDS = 200;
+    private static final int BENCHMARK_DAYS = 14;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        FriendlyDateFormatter.invalidate();
+        super.tearDown();
+    }
+
+    public void testJulianDayMatchesTime() {
+        long[] offsets = {0, 3600, -3600, 19800, -36000, 50400, -39600};
+        for (long millis = -3 * DAY_IN_MILLIS; millis < 3 * DAY_IN_MILLIS; millis += HOUR_IN_MILLIS / 2) {
+            for (long gmtoff : offsets) {
+                assertEquals("Error: Julian day of " + millis + " at " + gmtoff,
+                        Time.getJulianDay(millis, gmtoff),
+                        FriendlyDateFormatter.getJulianDay(millis, gmtoff));
+                long now = NOWS[0] + millis;
+                assertEquals(Time.getJulianDay(now, gmtoff),
+                        FriendlyDateFormatter.getJulianDay(now, gmtoff));
+            }
+        }
+    }
+
+    public void testGmtOffsetMatchesTime() {
+        for (String id : TIME_ZONES) {
+            for (long now : NOWS) {
+                for (long shift = -2 * HOUR_IN_MILLIS; shift <= 2 * HOUR_IN_MILLIS; shift += HOUR_IN_MILLIS) {
+                    Time time = new Time(id);
+                    time.set(now + shift);
+                    assertEquals("Error: UTC offset in " + id + " at " + (now + shift),
+                            time.gmtoff, FriendlyDateFormatter.getGmtOffset(
+                                    TimeZone.getTimeZone(id), now + shift));
+                }
+            }
+        }
+    }
+
+    public void testMatchesLegacyAcrossTimeZonesAndDst() {
+        for (String id : TIME_ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(id));
+            FriendlyDateFormatter.invalidate();
+            for (long transition : NOWS) {
+                for (long shift = -HOUR_IN_MILLIS; shift <= HOUR_IN_MILLIS; shift += HOUR_IN_MILLIS) {
+                    long now = transition + shift;
+                    for (int day = -2; day <= 14; day++) {
+                        // As stored, and at the same time of day as now.
+                        assertMatchesLegacy(id, now,
+                                WeatherContract.normalizeDate(now) + day * DAY_IN_MILLIS);
+                        assertMatchesLegacy(id, now, now + day * DAY_IN_MILLIS);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testTimeZoneChangeIsPickedUp() {
+        long now = NOWS[4];
+        long date = WeatherContract.normalizeDate(now) + 3 * DAY_IN_MILLIS;
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        FriendlyDateFormatter.invalidate();
+        String east = FriendlyDateFormatter.getDayName(mContext, date, now);
+
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+        FriendlyDateFormatter.invalidate();
+        String west = FriendlyDateFormatter.getDayName(mContext, date, now);
+        assertEquals(legacyGetDayName(mContext, date, now), west);
+        assertFalse("Error: still formatting for the old time zone", east.equals(west));
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testWeekIsFormattedOnce() {
+        // At the same time of day as now, so every date is in the current week in any zone.
+        long now = System.currentTimeMillis();
+        String[] first = new String[7];
+        for (int day = 0; day < 7; day++) {
+            first[day] = FriendlyDateFormatter.getFriendlyDayString(
+                    mContext, now + day * DAY_IN_MILLIS, day == 0, now);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int day = 0; day < 7; day++) {
+                assertSame(first[day], FriendlyDateFormatter.getFriendlyDayString(
+                        mContext, now + day * DAY_IN_MILLIS, day == 0, now));
+            }
+            assertEquals("Error: formatting a remembered day allocated",
+                    0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void testBenchmark() {
+        long now = System.currentTimeMillis();
+        long today = WeatherContract.normalizeDate(now);
+
+        long start = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                legacyGetFriendlyDayString(mContext, today + day * DAY_IN_MILLIS, day == 0, now);
+            }
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                FriendlyDateFormatter.getFriendlyDayString(
+                        mContext, today + day * DAY_IN_MILLIS, day == 0, now);
+            }
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        int calls = BENCHMARK_ROUNDS * BENCHMARK_DAYS;
+        Log.d(LOG_TAG, "getFriendlyDayString: new Time and SimpleDateFormat "
+                + legacyNanos / calls + "ns/call, FriendlyDateFormatter "
+                + cachedNanos / calls + "ns/call");
+    }
+
+    private void assertMatchesLegacy(String id, long now, long date) {
+        String where = " for " + date + " at " + now + " in " + id;
+        assertEquals("Error: friendly day" + where,
+                legacyGetFriendlyDayString(mContext, date, false, now),
+                FriendlyDateFormatter.getFriendlyDayString(mContext, date, false, now));
+        assertEquals("Error: long friendly day" + where,
+                legacyGetFriendlyDayString(mContext, date, true, now),
+                FriendlyDateFormatter.getFriendlyDayString(mContext, date, true, now));
+        assertEquals("Error: full friendly day" + where,
+                legacyGetFullFriendlyDayString(mContext, date, now),
+                FriendlyDateFormatter.getFullFriendlyDayString(mContext, date, now));
+        assertEquals("Error: day name" + where,
+                legacyGetDayName(mContext, date, now),
+                FriendlyDateFormatter.getDayName(mContext, date, now));
+        assertEquals("Error: month and day" + where,
+                legacyGetFormattedMonthDay(date),
+                FriendlyDateFormatter.getFormattedMonthDay(mContext, date, now));
+    }
+
+    // What Utility used to do, with "now" passed in.
+
+    private static String legacyGetFriendlyDayString(Context context, long dateInMillis,
+                                                     boolean displayLongToday, long now) {
+        Time time = new Time();
+        time.set(now);
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(now, time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    legacyGetFormattedMonthDay(dateInMillis)));
+        } else if ( julianDay < currentJulianDay + 7 ) {
+            return legacyGetDayName(context, dateInMillis, now);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private static String legacyGetFullFriendlyDayString(Context context, long dateInMillis,
+                                                         long now) {
+        String day = legacyGetDayName(context, dateInMillis, now);
+        int formatId = R.string.format_full_friendly_date;
+        return String.format(context.getString(
+                formatId,
+                day,
+                legacyGetFormattedMonthDay(dateInMillis)));
+    }
+
+    private static String legacyGetDayName(Context context, long dateInMillis, long now) {
+        Time t = new Time();
+        t.set(now);
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(now, t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if ( julianDay == currentJulianDay +1 ) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    private static String legacyGetFormattedMonthDay(long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the old bulkInsert (db.insert per row against ON CONFLICT REPLACE) with the
+    compiled-statement upsert, on 14 days for each of 1,000 locations.  The numbers only show up
+    in logcat; the assertions just check both paths store the same rows.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 1000;
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private ContentValues[] mValues;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        mValues = new ContentValues[LOCATION_COUNT * DAYS];
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATION_COUNT; i++) {
+                ContentValues location = TestUtilities.createNorthPoleLocationValues();
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, "benchmark-" + i);
+                long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, location);
+                assertTrue(locationRowId != -1);
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues weather = TestUtilities.createWeatherValues(locationRowId);
+                    weather.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    weather.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day);
+                    mValues[i * DAYS + day] = weather;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testBulkInsertBenchmark() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Only the old path exists here.
+            return;
+        }
+
+        // Before: what bulkInsert used to do.
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : mValues) {
+                value.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                db.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        // Same rows again: every one of them is deleted and re-inserted by REPLACE.
+        start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : mValues) {
+                db.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+        long legacyRepeatNanos = System.nanoTime() - start;
+        assertEquals(mValues.length, countWeatherRows());
+
+        // After: the provider's compiled-statement upsert, into an empty table.
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        start = System.nanoTime();
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, mValues);
+        long upsertNanos = System.nanoTime() - start;
+        assertEquals(mValues.length, inserted);
+        assertEquals(mValues.length, countWeatherRows());
+
+        // Same rows again: nothing is rewritten.
+        start = System.nanoTime();
+        int unchanged = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, mValues);
+        long upsertRepeatNanos = System.nanoTime() - start;
+        assertEquals(mValues.length, unchanged);
+        assertEquals(mValues.length, countWeatherRows());
+
+        Log.d(LOG_TAG, "db.insert: " + rowsPerSecond(legacyNanos) + " rows/s new, "
+                + rowsPerSecond(legacyRepeatNanos) + " rows/s repeated");
+        Log.d(LOG_TAG, "compiled upsert: " + rowsPerSecond(upsertNanos) + " rows/s new, "
+                + rowsPerSecond(upsertRepeatNanos) + " rows/s repeated");
+    }
+
+    /*
+        A changed value has to be written over the stored row, not dropped.
+     */
+    public void testUpsertUpdatesChangedRows() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, mValues);
+
+        ContentValues changed = new ContentValues(mValues[0]);
+        changed.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        assertEquals(1, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{changed}));
+        assertEquals(mValues.length, countWeatherRows());
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC},
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{changed.getAsString(WeatherEntry.COLUMN_LOC_KEY),
+                        changed.getAsString(WeatherEntry.COLUMN_DATE)},
+                null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Meteors", cursor.getString(0));
+        cursor.close();
+    }
+
+    private long rowsPerSecond(long nanos) {
+        return mValues.length * 1000000000L / nanos;
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
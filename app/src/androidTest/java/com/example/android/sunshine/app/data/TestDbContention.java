@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A writer keeps bulk inserting weather while several readers run the weather/* join query
+    the forecast list uses.  Logs the p50/p99 read latency; the readers must all get through.
+ */
+public class TestDbContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbContention.class.getSimpleName();
+
+    private static final int READER_COUNT = 4;
+    private static final int READS_PER_READER = 200;
+    private static final int DAYS = 14;
+    private static final int LOCATIONS = 50;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        db.close();
+    }
+
+    public void testReadLatencyUnderWrites() throws Exception {
+        final ContentValues[] values = new ContentValues[LOCATIONS * DAYS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "contention-" + i);
+            long locationRowId = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues weather = TestUtilities.createWeatherValues(locationRowId);
+                weather.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                values[i * DAYS + day] = weather;
+            }
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger writes = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (writing.get()) {
+                    // Change every row so nothing is skipped as unchanged.
+                    int pass = writes.incrementAndGet();
+                    for (ContentValues value : values) {
+                        value.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + pass % 10);
+                    }
+                    mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+                }
+            }
+        });
+
+        final long[][] latencies = new long[READER_COUNT][READS_PER_READER];
+        final CountDownLatch done = new CountDownLatch(READER_COUNT);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] readers = new Thread[READER_COUNT];
+        for (int r = 0; r < READER_COUNT; r++) {
+            final int reader = r;
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < READS_PER_READER; i++) {
+                            Uri uri = WeatherEntry.buildWeatherLocation("contention-" + (i % LOCATIONS));
+                            long start = System.nanoTime();
+                            Cursor cursor = mContext.getContentResolver().query(uri, null, null,
+                                    null, WeatherEntry.COLUMN_DATE + " ASC");
+                            if (cursor == null || cursor.getCount() != DAYS) {
+                                failures.incrementAndGet();
+                            }
+                            if (cursor != null) {
+                                cursor.close();
+                            }
+                            latencies[reader][i] = System.nanoTime() - start;
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        done.await();
+        writing.set(false);
+        writer.join();
+
+        assertEquals("Error: readers saw a partially written forecast", 0, failures.get());
+
+        long[] all = new long[READER_COUNT * READS_PER_READER];
+        for (int r = 0; r < READER_COUNT; r++) {
+            System.arraycopy(latencies[r], 0, all, r * READS_PER_READER, READS_PER_READER);
+        }
+        Arrays.sort(all);
+        Log.d(LOG_TAG, all.length + " reads during " + writes.get() + " bulk inserts: p50 "
+                + all[all.length / 2] / 1000 + " us, p99 "
+                + all[all.length * 99 / 100] / 1000 + " us");
+    }
+}
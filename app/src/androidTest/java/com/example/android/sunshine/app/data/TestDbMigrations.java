@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Builds a populated version 2 database by hand and checks that WeatherDbHelper carries it
+    through every migration step to the current version without losing a row.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final int FIRST_MIGRATABLE_VERSION = 2;
+
+    // The version 2 schema, frozen.  Don't update these when the schema changes.
+    private static final String V2_CREATE_LOCATION = "CREATE TABLE location ("
+            + "_id INTEGER PRIMARY KEY,"
+            + "location_setting TEXT UNIQUE NOT NULL, "
+            + "city_name TEXT NOT NULL, "
+            + "coord_lat REAL NOT NULL, "
+            + "coord_long REAL NOT NULL );";
+    private static final String V2_CREATE_WEATHER = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "location_id INTEGER NOT NULL, "
+            + "date INTEGER NOT NULL, "
+            + "short_desc TEXT NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "humidity REAL NOT NULL, "
+            + "pressure REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+            + " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /*
+        The steps have to form one unbroken chain up to the current version, or some upgrades
+        would fall back to wiping the database.
+     */
+    public void testMigrationsAreContiguous() {
+        int version = FIRST_MIGRATABLE_VERSION;
+        for (WeatherDbMigration migration : WeatherDbMigration.MIGRATIONS) {
+            assertEquals("Error: migration steps out of order", version, migration.fromVersion);
+            version = migration.toVersion();
+        }
+        assertEquals("Error: no migration up to the current version",
+                WeatherDbHelper.DATABASE_VERSION, version);
+    }
+
+    public void testUpgradeFromVersion2KeepsRows() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        db.execSQL(V2_CREATE_LOCATION);
+        db.execSQL(V2_CREATE_WEATHER);
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        ContentValues[] weather = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            weather[day] = TestUtilities.createWeatherValues(locationRowId);
+            weather[day].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+            assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weather[day]) != -1);
+        }
+        db.setVersion(FIRST_MIGRATABLE_VERSION);
+        db.close();
+
+        db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: location lost in the upgrade", cursor,
+                TestUtilities.createNorthPoleLocationValues());
+
+        cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: weather rows lost in the upgrade", DAYS, cursor.getCount());
+        cursor.moveToFirst();
+        for (int day = 0; day < DAYS; day++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("Error: weather row " + day + " changed",
+                    cursor, weather[day]);
+        }
+        cursor.close();
+
+        // And the result looks like a database created at the current version.
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: the upgrade didn't add the location/date index", cursor.moveToFirst());
+        cursor.close();
+        db.close();
+    }
+
+    /*
+        A version with no path forward is still rebuilt rather than left broken.
+     */
+    public void testUpgradeFromUnknownVersionRebuilds() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, name TEXT)");
+        db.setVersion(1);
+        db.close();
+
+        db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue(cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING) != -1);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Counts how often observers of the forecast would requery when the sync path writes through
+    the provider.  Each observer stands in for a CursorLoader on one weather/[location] uri.
+ */
+public class TestNotificationBatching extends AndroidTestCase {
+
+    private static final String LOCATION_A = "99705";
+    private static final String LOCATION_B = "94043";
+    private static final String LOCATION_C = "10001";
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Notifications are delivered asynchronously; wait this long without one to call it done.
+    private static final long QUIET_MILLIS = 500;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private HandlerThread mObserverThread;
+    private final ArrayList<CountingObserver> mObservers = new ArrayList<CountingObserver>();
+    private long mLocationA;
+    private long mLocationB;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationA = insertLocation(LOCATION_A);
+        mLocationB = insertLocation(LOCATION_B);
+        insertLocation(LOCATION_C);
+
+        mObserverThread = new HandlerThread("NotificationCounter");
+        mObserverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (CountingObserver observer : mObservers) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+        mObserverThread.quit();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /*
+        A sync batch that trims and rewrites two locations notifies each of them once, and
+        leaves the third alone.
+     */
+    public void testApplyBatchNotifiesOncePerLocation() throws Exception {
+        CountingObserver all = observe(WeatherEntry.CONTENT_URI);
+        CountingObserver a = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver b = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+        CountingObserver c = observe(WeatherEntry.buildWeatherLocation(LOCATION_C));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (long locationId : new long[]{mLocationA, mLocationB}) {
+            operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                    + WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(locationId),
+                                    Long.toString(TestUtilities.TEST_DATE)})
+                    .build());
+            for (ContentValues values : createForecast(locationId)) {
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(values)
+                        .build());
+            }
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        awaitQuiet();
+
+        assertEquals(1, a.count.get());
+        assertEquals(1, b.count.get());
+        assertEquals(0, c.count.get());
+        // One per location for anyone watching all of the weather.
+        assertEquals(2, all.count.get());
+    }
+
+    /*
+        The same batch again changes nothing, so nobody has to requery.
+     */
+    public void testUnchangedBatchDoesNotNotify() throws Exception {
+        ContentValues[] forecast = createForecast(mLocationA);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+
+        CountingObserver a = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+        awaitQuiet();
+
+        assertEquals(0, a.count.get());
+    }
+
+    public void testBulkInsertNotifiesOncePerLocation() throws Exception {
+        CountingObserver a = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver b = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+
+        ContentValues[] rows = new ContentValues[DAYS * 2];
+        System.arraycopy(createForecast(mLocationA), 0, rows, 0, DAYS);
+        System.arraycopy(createForecast(mLocationB), 0, rows, DAYS, DAYS);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+        awaitQuiet();
+
+        assertEquals(1, a.count.get());
+        assertEquals(1, b.count.get());
+    }
+
+    /*
+        Writes outside a batch are still announced one by one, to the location they touch.
+     */
+    public void testSingleInsertsNotifyEach() throws Exception {
+        CountingObserver a = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver b = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+
+        ContentValues[] forecast = createForecast(mLocationA);
+        for (ContentValues values : forecast) {
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        }
+        awaitQuiet();
+
+        assertEquals(DAYS, a.count.get());
+        assertEquals(0, b.count.get());
+    }
+
+    /*
+        An update that only touches one location's values leaves the other locations alone.
+     */
+    public void testUpdateNotifiesOnlyItsLocation() throws Exception {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createForecast(mLocationA));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createForecast(mLocationB));
+        CountingObserver a = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver b = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -99);
+        int rowsUpdated = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationA)});
+        awaitQuiet();
+
+        assertEquals(DAYS, rowsUpdated);
+        assertEquals(1, a.count.get());
+        assertEquals("Error: updating one location notified another", 0, b.count.get());
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+    }
+
+    private static ContentValues[] createForecast(long locationId) {
+        ContentValues[] forecast = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            forecast[day] = TestUtilities.createWeatherValues(locationId);
+            forecast[day].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+        }
+        return forecast;
+    }
+
+    private CountingObserver observe(Uri uri) {
+        // Let anything still in flight from setUp arrive before we start counting.
+        awaitQuiet();
+        CountingObserver observer = new CountingObserver(new Handler(mObserverThread.getLooper()));
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        mObservers.add(observer);
+        return observer;
+    }
+
+    private void awaitQuiet() {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        long lastCount = -1;
+        while (SystemClock.uptimeMillis() < deadline) {
+            long count = 0;
+            for (CountingObserver observer : mObservers) {
+                count += observer.count.get();
+            }
+            if (count == lastCount) {
+                return;
+            }
+            lastCount = count;
+            SystemClock.sleep(QUIET_MILLIS);
+        }
+    }
+
+    private static class CountingObserver extends ContentObserver {
+        final AtomicInteger count = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs EXPLAIN QUERY PLAN over every query the app sends through the provider and fails if
+    SQLite would answer any of them by scanning a whole table or index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String WEATHER_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testIndexExists() {
+        Cursor cursor = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: the weather location/date index is missing", cursor.moveToFirst());
+        cursor.close();
+    }
+
+    // weather/* : the forecast list
+    @SuppressWarnings("deprecation")
+    public void testWeatherWithLocation() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                        WeatherProvider.sLocationSettingSelection, null, null, null, WEATHER_ORDER, null),
+                TestUtilities.TEST_LOCATION);
+    }
+
+    // weather/*?date= : the list and the widgets from today on
+    @SuppressWarnings("deprecation")
+    public void testWeatherWithLocationAndStartDate() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                        WeatherProvider.sLocationSettingWithStartDateSelection, null, null, null,
+                        WEATHER_ORDER, null),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // weather/*/# : detail, notifications, Muzei and the today widget
+    @SuppressWarnings("deprecation")
+    public void testWeatherWithLocationAndDate() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                        WeatherProvider.sLocationSettingAndDaySelection, null, null, null,
+                        WEATHER_ORDER, null),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // location?location_setting= : the sync engine looking up location ids
+    public void testLocationBySetting() {
+        assertNoScan("SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                        + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " IN (?,?)",
+                TestUtilities.TEST_LOCATION, "94043");
+    }
+
+    // weather?date<= : trimming old rows after a sync
+    public void testOldWeather() {
+        assertNoScan("SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?",
+                Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // The compiled upsert's key lookup
+    public void testWeatherByKey() {
+        assertNoScan("SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherEntry.COLUMN_DATE + " = ?",
+                "1", Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    private void assertNoScan(String sql, String... selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            assertTrue("Error: no plan for " + sql, cursor.moveToFirst());
+            do {
+                String detail = cursor.getString(detailIndex);
+                Log.d(LOG_TAG, detail);
+                // "SCAN TABLE weather", "SCAN weather USING INDEX ...", and so on.
+                assertFalse("Error: full scan in " + sql + ": " + detail,
+                        detail.startsWith("SCAN"));
+            } while (cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+}
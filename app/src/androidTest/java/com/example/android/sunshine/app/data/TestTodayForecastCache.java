@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the current-conditions cache answers from memory after a sync, and that writes
+    through the provider for a location make it go back to the database for that location only.
+ */
+public class TestTodayForecastCache extends AndroidTestCase {
+
+    private static final String LOCATION_A = "99705";
+    private static final String LOCATION_B = "94043";
+
+    private long mLocationA;
+    private long mLocationB;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationA = insertLocation(LOCATION_A);
+        mLocationB = insertLocation(LOCATION_B);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        TodayForecastCache.invalidateAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        TodayForecastCache.invalidateAll();
+        super.tearDown();
+    }
+
+    public void testMissLoadsFromProviderThenHits() {
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, createToday(mLocationA, 800));
+
+        int misses = TodayForecastCache.getMissCount();
+        TodayForecastCache.Snapshot today = TodayForecastCache.get(mContext, LOCATION_A);
+        assertNotNull("Error: today's forecast wasn't loaded", today);
+        assertEquals(800, today.weatherId);
+        assertEquals(mToday, today.date);
+        assertEquals(misses + 1, TodayForecastCache.getMissCount());
+
+        int hits = TodayForecastCache.getHitCount();
+        assertSame(today, TodayForecastCache.get(mContext, LOCATION_A));
+        assertEquals(hits + 1, TodayForecastCache.getHitCount());
+        assertEquals(misses + 1, TodayForecastCache.getMissCount());
+    }
+
+    /*
+        What the sync puts is served without a query, even before the database has the row.
+     */
+    public void testPutIsServedFromMemory() {
+        List<ContentValues> days = new ArrayList<ContentValues>();
+        days.add(createToday(mLocationA, 500));
+        TodayForecastCache.put(LOCATION_A, days);
+
+        int misses = TodayForecastCache.getMissCount();
+        TodayForecastCache.Snapshot today = TodayForecastCache.get(mContext, LOCATION_A);
+        assertNotNull(today);
+        assertEquals(500, today.weatherId);
+        assertEquals(misses, TodayForecastCache.getMissCount());
+    }
+
+    public void testProviderWriteInvalidatesOnlyThatLocation() {
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, createToday(mLocationA, 800));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, createToday(mLocationB, 800));
+        TodayForecastCache.Snapshot b = TodayForecastCache.get(mContext, LOCATION_B);
+        TodayForecastCache.get(mContext, LOCATION_A);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{createToday(mLocationA, 200)});
+
+        TodayForecastCache.Snapshot a = TodayForecastCache.get(mContext, LOCATION_A);
+        assertNotNull(a);
+        assertEquals("Error: the cache kept a forecast the provider replaced", 200, a.weatherId);
+        assertSame("Error: another location's forecast was dropped",
+                b, TodayForecastCache.get(mContext, LOCATION_B));
+    }
+
+    public void testDeleteInvalidates() {
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, createToday(mLocationA, 800));
+        assertNotNull(TodayForecastCache.get(mContext, LOCATION_A));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertNull(TodayForecastCache.get(mContext, LOCATION_A));
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+    }
+
+    private ContentValues createToday(long locationId, int weatherId) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, mToday);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return values;
+    }
+}
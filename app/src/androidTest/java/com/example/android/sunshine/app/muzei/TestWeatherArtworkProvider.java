@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.apps.muzei.api.Artwork;
+import com.google.android.apps.muzei.api.MuzeiArtSource;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/*
+    WeatherArtworkProvider "downloads" a photo from a file:// URL, so no network is needed, and
+    the copy is read back the way Muzei would, through the ContentResolver.  The publish decision
+    in WeatherMuzeiSource is tried with artwork as it would have been published before.
+ */
+public class TestWeatherArtworkProvider extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherArtworkProvider.class.getSimpleName();
+
+    private File mSource;
+    private byte[] mImage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Not a real JPEG, but nothing here decodes it.
+        mImage = new byte[20 * 1024];
+        for (int i = 0; i < mImage.length; i++) {
+            mImage[i] = (byte) i;
+        }
+        mSource = new File(mContext.getCacheDir(), "test_muzei_art.jpg");
+        FileOutputStream out = new FileOutputStream(mSource);
+        out.write(mImage);
+        out.close();
+        deleteArtwork();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteArtwork();
+        mSource.delete();
+        super.tearDown();
+    }
+
+    public void testFetchedArtworkIsServedLocally() throws IOException {
+        Uri uri = WeatherArtworkProvider.fetch(mContext, getSourceUrl());
+        assertNotNull("Error: unable to fetch " + getSourceUrl(), uri);
+        assertEquals("content", uri.getScheme());
+
+        long bytesServed = WeatherArtworkProvider.getBytesServed();
+        int servedCount = WeatherArtworkProvider.getServedCount();
+        assertTrue("Error: the artwork served wasn't the artwork fetched",
+                Arrays.equals(mImage, read(uri)));
+        assertEquals(servedCount + 1, WeatherArtworkProvider.getServedCount());
+        assertEquals(bytesServed + mImage.length, WeatherArtworkProvider.getBytesServed());
+
+        // The copy is kept, so the source isn't needed again.
+        assertTrue(mSource.delete());
+        assertEquals(uri, WeatherArtworkProvider.fetch(mContext, getSourceUrl()));
+        Log.d(LOG_TAG, "Served " + WeatherArtworkProvider.getBytesServed() + " bytes locally");
+    }
+
+    public void testMissingArtworkIsNotFetched() {
+        assertNull(WeatherArtworkProvider.fetch(mContext, getSourceUrl() + ".missing"));
+    }
+
+    public void testOnlyArtworkCanBeOpened() {
+        Uri.Builder builder = new Uri.Builder().scheme("content")
+                .authority(WeatherArtworkProvider.buildArtworkUri(mContext, "x").getAuthority());
+        String[] names = {"..", "shared_prefs", "0123456789abcdef0123456789abcdef0123456"};
+        for (String name : names) {
+            try {
+                read(builder.path(name).build());
+                fail("Error: opened " + name);
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+        try {
+            mContext.getContentResolver().query(
+                    WeatherArtworkProvider.buildArtworkUri(mContext, "x"), null, null, null, null);
+            fail("Error: artwork can be queried");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+    }
+
+    public void testUnchangedArtworkIsNotPublishedAgain() {
+        String token = WeatherMuzeiSource.getToken(800, "94043");
+        Artwork local = new Artwork.Builder()
+                .imageUri(WeatherArtworkProvider.buildArtworkUri(mContext,
+                        "0123456789abcdef0123456789abcdef01234567"))
+                .token(token)
+                .build();
+        Artwork remote = new Artwork.Builder()
+                .imageUri(Uri.parse("https://example.com/art.jpg"))
+                .token(token)
+                .build();
+        int update = MuzeiArtSource.UPDATE_REASON_OTHER;
+
+        assertFalse(WeatherMuzeiSource.shouldPublish(local, token, update));
+        assertTrue("Error: nothing published yet, but not publishing",
+                WeatherMuzeiSource.shouldPublish(null, token, update));
+        assertTrue("Error: condition changed, but not publishing",
+                WeatherMuzeiSource.shouldPublish(local,
+                        WeatherMuzeiSource.getToken(500, "94043"), update));
+        assertTrue("Error: location changed, but not publishing",
+                WeatherMuzeiSource.shouldPublish(local,
+                        WeatherMuzeiSource.getToken(800, "10001"), update));
+        assertTrue("Error: published from the network, but not served locally when it can be",
+                WeatherMuzeiSource.shouldPublish(remote, token, update));
+        assertTrue(WeatherMuzeiSource.shouldPublish(local, token,
+                MuzeiArtSource.UPDATE_REASON_INITIAL));
+    }
+
+    private String getSourceUrl() {
+        return Uri.fromFile(mSource).toString();
+    }
+
+    private byte[] read(Uri uri) throws IOException {
+        InputStream in = mContext.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        try {
+            byte[] buffer = new byte[mImage.length * 2];
+            int length = 0;
+            int count;
+            while ((count = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += count;
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void deleteArtwork() {
+        File directory = WeatherArtworkProvider.getArtworkFile(mContext, "x").getParentFile();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A tiny HTTP server on the loopback interface that stands in for api.openweathermap.org.
+    It serves one canned forecast, with an ETag if one is set, and answers 304 to requests that
+    already have it.  With no canned forecast set, every location gets the recorded forecast
+    renamed after its "q" parameter, so many locations can be synced against it at once.
+ */
+public class StubForecastServer {
+    private static final String LOG_TAG = StubForecastServer.class.getSimpleName();
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    final AtomicInteger requestCount = new AtomicInteger();
+    final AtomicInteger notModifiedCount = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+
+    private volatile String mBody = SyncTestUtilities.RECORDED_FORECAST_JSON;
+    private volatile String mEtag;
+    private volatile long mLatencyMillis;
+
+    StubForecastServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    void setForecast(String body, String etag) {
+        mBody = body;
+        mEtag = etag;
+    }
+
+    /*
+        How long to wait before answering each request, to stand in for the round trip to OWM.
+     */
+    void setLatency(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /*
+        Builds the same query SunshineSyncAdapter does, pointed at this server.
+     */
+    Uri buildForecastUri(String locationSetting) {
+        return Uri.parse("http://127.0.0.1:" + mServerSocket.getLocalPort()
+                + "/data/2.5/forecast/daily?").buildUpon()
+                .appendQueryParameter("q", locationSetting)
+                .appendQueryParameter("mode", "json")
+                .appendQueryParameter("units", "metric")
+                .appendQueryParameter("cnt", "14")
+                .build();
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // We're done with it anyway.
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (SocketException e) {
+                // Closed by shutdown().
+                return;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "accept failed", e);
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+
+            String ifNoneMatch = null;
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(colon + 1).trim();
+                }
+            }
+            requestCount.incrementAndGet();
+            int inFlight = mInFlight.incrementAndGet();
+            try {
+                int max;
+                while (inFlight > (max = maxInFlight.get())
+                        && !maxInFlight.compareAndSet(max, inFlight)) {
+                    // retry
+                }
+                respond(socket, requestLine, ifNoneMatch);
+            } finally {
+                mInFlight.decrementAndGet();
+            }
+        } catch (IOException | InterruptedException e) {
+            Log.e(LOG_TAG, "Error serving request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+    }
+
+    private void respond(Socket socket, String requestLine, String ifNoneMatch)
+            throws IOException, InterruptedException {
+        if (mLatencyMillis > 0) {
+            Thread.sleep(mLatencyMillis);
+        }
+
+        String body = mBody;
+        if (body == null) {
+            // "GET /data/2.5/forecast/daily?q=...&mode=json... HTTP/1.1"
+            String path = requestLine.split(" ")[1];
+            String location = Uri.parse(path).getQueryParameter("q");
+            body = SyncTestUtilities.RECORDED_FORECAST_JSON.replace(
+                    SyncTestUtilities.RECORDED_FORECAST_CITY, location);
+        }
+        String etag = mEtag;
+        OutputStream out = socket.getOutputStream();
+        if (etag != null && etag.equals(ifNoneMatch)) {
+            notModifiedCount.incrementAndGet();
+            out.write(("HTTP/1.1 304 Not Modified\r\n"
+                    + "ETag: " + etag + "\r\n"
+                    + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+        } else {
+            byte[] bytes = body.getBytes("UTF-8");
+            out.write(("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: application/json; charset=utf-8\r\n"
+                    + "Content-Length: " + bytes.length + "\r\n"
+                    + (etag != null ? "ETag: " + etag + "\r\n" : "")
+                    + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+            out.write(bytes);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/*
+    Canned OpenWeatherMap responses shared by the sync tests.
+ */
+public class SyncTestUtilities {
+
+    // A 14 day daily forecast for Mountain View, as recorded from
+    // api.openweathermap.org/data/2.5/forecast/daily?q=94043&mode=json&units=metric&cnt=14
+    static final String RECORDED_FORECAST_JSON =
+            "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},\"country\":\"US\",\"population\":0},\"cod\":\"200\",\"message\":0.0121,\"cnt\":14,\"list\":[" +
+            "{\"dt\":1476705600,\"temp\":{\"day\":16.88,\"min\":13.69,\"max\":20.06,\"night\":14.69,\"eve\":19.06,\"morn\":14.19},\"pressure\":991.69,\"humidity\":92,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":5.05,\"deg\":187,\"clouds\":74,\"rain\":0.38}," +
+            "{\"dt\":1476792000,\"temp\":{\"day\":11.55,\"min\":9.29,\"max\":13.81,\"night\":10.29,\"eve\":12.81,\"morn\":9.79},\"pressure\":1004.64,\"humidity\":55,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":1.27,\"deg\":217,\"clouds\":7,\"rain\":4.15}," +
+            "{\"dt\":1476878400,\"temp\":{\"day\":17.57,\"min\":13.68,\"max\":21.46,\"night\":14.68,\"eve\":20.46,\"morn\":14.18},\"pressure\":1010.40,\"humidity\":43,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":5.41,\"deg\":203,\"clouds\":6}," +
+            "{\"dt\":1476964800,\"temp\":{\"day\":12.86,\"min\":8.28,\"max\":17.43,\"night\":9.28,\"eve\":16.43,\"morn\":8.78},\"pressure\":1000.14,\"humidity\":49,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":5.10,\"deg\":292,\"clouds\":39}," +
+            "{\"dt\":1477051200,\"temp\":{\"day\":15.44,\"min\":12.90,\"max\":17.98,\"night\":13.90,\"eve\":16.98,\"morn\":13.40},\"pressure\":1010.36,\"humidity\":80,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":2.10,\"deg\":49,\"clouds\":70,\"rain\":3.59}," +
+            "{\"dt\":1477137600,\"temp\":{\"day\":10.98,\"min\":8.36,\"max\":13.60,\"night\":9.36,\"eve\":12.60,\"morn\":8.86},\"pressure\":1013.81,\"humidity\":67,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":7.11,\"deg\":238,\"clouds\":74,\"rain\":4.62}," +
+            "{\"dt\":1477224000,\"temp\":{\"day\":14.19,\"min\":9.80,\"max\":18.57,\"night\":10.80,\"eve\":17.57,\"morn\":10.30},\"pressure\":1014.46,\"humidity\":55,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":1.20,\"deg\":153,\"clouds\":67,\"rain\":2.53}," +
+            "{\"dt\":1477310400,\"temp\":{\"day\":15.25,\"min\":12.38,\"max\":18.11,\"night\":13.38,\"eve\":17.11,\"morn\":12.88},\"pressure\":1024.31,\"humidity\":47,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":4.85,\"deg\":84,\"clouds\":96,\"rain\":1.78}," +
+            "{\"dt\":1477396800,\"temp\":{\"day\":15.41,\"min\":10.53,\"max\":20.30,\"night\":11.53,\"eve\":19.30,\"morn\":11.03},\"pressure\":992.72,\"humidity\":75,\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}],\"speed\":5.37,\"deg\":160,\"clouds\":43}," +
+            "{\"dt\":1477483200,\"temp\":{\"day\":13.59,\"min\":10.10,\"max\":17.08,\"night\":11.10,\"eve\":16.08,\"morn\":10.60},\"pressure\":1017.89,\"humidity\":44,\"weather\":[{\"id\":804,\"main\":\"Clouds\",\"description\":\"overcast clouds\",\"icon\":\"04d\"}],\"speed\":7.64,\"deg\":138,\"clouds\":60}," +
+            "{\"dt\":1477569600,\"temp\":{\"day\":14.16,\"min\":11.98,\"max\":16.34,\"night\":12.98,\"eve\":15.34,\"morn\":12.48},\"pressure\":1014.55,\"humidity\":81,\"weather\":[{\"id\":804,\"main\":\"Clouds\",\"description\":\"overcast clouds\",\"icon\":\"04d\"}],\"speed\":5.41,\"deg\":348,\"clouds\":57}," +
+            "{\"dt\":1477656000,\"temp\":{\"day\":16.96,\"min\":12.30,\"max\":21.62,\"night\":13.30,\"eve\":20.62,\"morn\":12.80},\"pressure\":1002.15,\"humidity\":69,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":3.52,\"deg\":312,\"clouds\":14,\"rain\":2.52}," +
+            "{\"dt\":1477742400,\"temp\":{\"day\":15.00,\"min\":12.61,\"max\":17.39,\"night\":13.61,\"eve\":16.39,\"morn\":13.11},\"pressure\":998.67,\"humidity\":65,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":8.29,\"deg\":254,\"clouds\":10}," +
+            "{\"dt\":1477828800,\"temp\":{\"day\":14.35,\"min\":10.70,\"max\":18.00,\"night\":11.70,\"eve\":17.00,\"morn\":11.20},\"pressure\":1020.92,\"humidity\":92,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":4.16,\"deg\":281,\"clouds\":35}" +
+            "]}";
+
+    static final int RECORDED_FORECAST_DAYS = 14;
+    static final String RECORDED_FORECAST_CITY = "Mountain View";
+
+    // What OWM sends back for a location it doesn't know about.
+    static final String NOT_FOUND_JSON = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    static InputStream toStream(String json) {
+        try {
+            return new ByteArrayInputStream(json.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_WARMUP = 20;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    /*
+        The streaming parser has to produce exactly the rows the old org.json code did.
+     */
+    public void testStreamingMatchesDom() throws Exception {
+        SunshineSyncAdapter.ForecastCollector streamed = new SunshineSyncAdapter.ForecastCollector();
+        int streamedCode = ForecastJsonParser.parse(
+                SyncTestUtilities.toStream(SyncTestUtilities.RECORDED_FORECAST_JSON), streamed);
+
+        SunshineSyncAdapter.ForecastCollector dom = new SunshineSyncAdapter.ForecastCollector();
+        int domCode = ForecastJsonParser.parseDom(SyncTestUtilities.RECORDED_FORECAST_JSON, dom);
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamedCode);
+        assertEquals(HttpURLConnection.HTTP_OK, domCode);
+
+        assertEquals(SyncTestUtilities.RECORDED_FORECAST_CITY, streamed.cityName);
+        assertEquals(dom.cityName, streamed.cityName);
+        assertEquals(dom.cityLatitude, streamed.cityLatitude);
+        assertEquals(dom.cityLongitude, streamed.cityLongitude);
+
+        assertEquals(SyncTestUtilities.RECORDED_FORECAST_DAYS, streamed.rows.size());
+        assertEquals(dom.rows.size(), streamed.rows.size());
+        for (int i = 0; i < dom.rows.size(); i++) {
+            ContentValues expected = dom.rows.get(i);
+            ContentValues actual = streamed.rows.get(i);
+            assertEquals("Error: day " + i + " differs between the parsers", expected, actual);
+        }
+    }
+
+    public void testNotFound() throws Exception {
+        SunshineSyncAdapter.ForecastCollector collector = new SunshineSyncAdapter.ForecastCollector();
+        int code = ForecastJsonParser.parse(
+                SyncTestUtilities.toStream(SyncTestUtilities.NOT_FOUND_JSON), collector);
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, code);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                ForecastJsonParser.parseDom(SyncTestUtilities.NOT_FOUND_JSON, collector));
+        assertTrue(collector.rows.isEmpty());
+    }
+
+    public void testMalformed() throws Exception {
+        // Cut the recorded response off half way through the list.
+        String truncated = SyncTestUtilities.RECORDED_FORECAST_JSON.substring(0,
+                SyncTestUtilities.RECORDED_FORECAST_JSON.length() / 2);
+        try {
+            ForecastJsonParser.parse(SyncTestUtilities.toStream(truncated),
+                    new SunshineSyncAdapter.ForecastCollector());
+            fail("Error: a truncated response was parsed");
+        } catch (IOException | JSONException e) {
+            // Either is reported to the user as a sync failure.
+        }
+
+        try {
+            ForecastJsonParser.parse(SyncTestUtilities.toStream("{\"list\":[]}"),
+                    new SunshineSyncAdapter.ForecastCollector());
+            fail("Error: a response without a city was parsed");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    /*
+        Compares the old path (read lines into a String, build the org.json tree, copy into
+        ContentValues) to the streaming one on the recorded response.  The numbers only show up
+        in logcat; there's nothing to assert on a shared device.
+     */
+    @SuppressWarnings("deprecation")
+    public void testParserBenchmark() throws Exception {
+        for (int i = 0; i < BENCHMARK_WARMUP; i++) {
+            parseWithDom();
+            parseWithStream();
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                parseWithDom();
+            }
+            long domNanos = System.nanoTime() - start;
+            long domBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                parseWithStream();
+            }
+            long streamNanos = System.nanoTime() - start;
+            long streamBytes = Debug.getThreadAllocSize();
+
+            Log.d(LOG_TAG, "DOM: " + domNanos / BENCHMARK_ITERATIONS / 1000 + " us/parse, "
+                    + domBytes / BENCHMARK_ITERATIONS + " bytes/parse");
+            Log.d(LOG_TAG, "Streaming: " + streamNanos / BENCHMARK_ITERATIONS / 1000 + " us/parse, "
+                    + streamBytes / BENCHMARK_ITERATIONS + " bytes/parse");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static void parseWithDom() throws IOException, JSONException {
+        InputStream in = SyncTestUtilities.toStream(SyncTestUtilities.RECORDED_FORECAST_JSON);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        reader.close();
+        ForecastJsonParser.parseDom(buffer.toString(), new SunshineSyncAdapter.ForecastCollector());
+    }
+
+    private static void parseWithStream() throws IOException, JSONException {
+        InputStream in = SyncTestUtilities.toStream(SyncTestUtilities.RECORDED_FORECAST_JSON);
+        ForecastJsonParser.parse(in, new SunshineSyncAdapter.ForecastCollector());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+/*
+    Runs SunshineSyncAdapter.syncForecast against StubForecastServer to check that unchanged
+    forecasts are neither parsed into the database nor announced again.
+ */
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "94043";
+
+    private StubForecastServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteCache(new File(mContext.getCacheDir(), "forecast"));
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mServer = new StubForecastServer();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testNotModified() {
+        mServer.setForecast(SyncTestUtilities.RECORDED_FORECAST_JSON, "\"v1\"");
+        Uri uri = mServer.buildForecastUri(TEST_LOCATION);
+
+        assertEquals(SunshineSyncAdapter.FORECAST_APPLIED, mSyncAdapter.syncForecast(uri, TEST_LOCATION));
+        assertEquals(SyncTestUtilities.RECORDED_FORECAST_DAYS, countWeatherRows());
+
+        // The second request carries the ETag and gets a 304 back.
+        assertEquals(SunshineSyncAdapter.FORECAST_NOT_MODIFIED, mSyncAdapter.syncForecast(uri, TEST_LOCATION));
+        assertEquals(2, mServer.requestCount.get());
+        assertEquals(1, mServer.notModifiedCount.get());
+        assertEquals(SyncTestUtilities.RECORDED_FORECAST_DAYS, countWeatherRows());
+
+        // A new version of the forecast is applied as usual.
+        mServer.setForecast(SyncTestUtilities.RECORDED_FORECAST_JSON.replace("Rain", "Drizzle"), "\"v2\"");
+        assertEquals(SunshineSyncAdapter.FORECAST_APPLIED, mSyncAdapter.syncForecast(uri, TEST_LOCATION));
+    }
+
+    public void testUnchangedBodyWithoutValidators() {
+        // No ETag from the server, so only the body hash can tell us nothing changed.
+        mServer.setForecast(SyncTestUtilities.RECORDED_FORECAST_JSON, null);
+        Uri uri = mServer.buildForecastUri(TEST_LOCATION);
+
+        assertEquals(SunshineSyncAdapter.FORECAST_APPLIED, mSyncAdapter.syncForecast(uri, TEST_LOCATION));
+        assertEquals(SunshineSyncAdapter.FORECAST_UNCHANGED, mSyncAdapter.syncForecast(uri, TEST_LOCATION));
+        assertEquals(0, mServer.notModifiedCount.get());
+    }
+
+    public void testNotModifiedAfterDataLoss() {
+        mServer.setForecast(SyncTestUtilities.RECORDED_FORECAST_JSON, "\"v1\"");
+        Uri uri = mServer.buildForecastUri(TEST_LOCATION);
+        assertEquals(SunshineSyncAdapter.FORECAST_APPLIED, mSyncAdapter.syncForecast(uri, TEST_LOCATION));
+
+        // If the rows disappear, a 304 must not leave us with an empty database.
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals(SunshineSyncAdapter.FORECAST_APPLIED, mSyncAdapter.syncForecast(uri, TEST_LOCATION));
+        assertEquals(1, mServer.notModifiedCount.get());
+        assertEquals(SyncTestUtilities.RECORDED_FORECAST_DAYS, countWeatherRows());
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TEST_LOCATION), null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private static void deleteCache(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
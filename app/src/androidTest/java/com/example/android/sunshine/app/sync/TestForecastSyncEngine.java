@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Syncs a few hundred locations against StubForecastServer in one go.  Checks that every one
+    of them lands in the database, that the per-host limit holds, and logs the throughput.
+ */
+public class TestForecastSyncEngine extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSyncEngine.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 300;
+    private static final long SERVER_LATENCY_MILLIS = 20;
+
+    private StubForecastServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        File[] cached = new File(mContext.getCacheDir(), "forecast").listFiles();
+        if (cached != null) {
+            for (File file : cached) {
+                file.delete();
+            }
+        }
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mServer = new StubForecastServer();
+        // Every location gets its own forecast.
+        mServer.setForecast(null, null);
+        mServer.setLatency(SERVER_LATENCY_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testManyLocations() {
+        List<ForecastSyncEngine.Request> requests = new ArrayList<ForecastSyncEngine.Request>();
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            String location = "Location " + i;
+            requests.add(new ForecastSyncEngine.Request(location, mServer.buildForecastUri(location)));
+        }
+
+        ForecastSyncEngine engine = new ForecastSyncEngine(mContext,
+                new ForecastResponseCache(mContext));
+        long start = System.nanoTime();
+        List<ForecastSyncEngine.Result> results = engine.sync(requests);
+        long elapsedNanos = System.nanoTime() - start;
+
+        assertEquals(LOCATION_COUNT, results.size());
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ForecastSyncEngine.Result result = results.get(i);
+            assertEquals(requests.get(i).locationSetting, result.locationSetting);
+            assertEquals("Error: " + result.locationSetting + " was not applied",
+                    SunshineSyncAdapter.FORECAST_APPLIED, result.outcome);
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+        }
+
+        assertEquals(LOCATION_COUNT, count(LocationEntry.CONTENT_URI));
+        assertEquals(LOCATION_COUNT * SyncTestUtilities.RECORDED_FORECAST_DAYS,
+                count(WeatherEntry.CONTENT_URI));
+        assertTrue("Error: " + mServer.maxInFlight.get() + " requests in flight to one host",
+                mServer.maxInFlight.get() <= ForecastSyncEngine.DEFAULT_MAX_REQUESTS_PER_HOST);
+
+        Log.d(LOG_TAG, LOCATION_COUNT + " locations in " + elapsedNanos / 1000000 + " ms, "
+                + LOCATION_COUNT * 1000000000L / elapsedNanos + " locations/s");
+
+        // Nothing changed, so the second pass must not write anything.
+        results = engine.sync(requests);
+        for (ForecastSyncEngine.Result result : results) {
+            assertEquals(SunshineSyncAdapter.FORECAST_UNCHANGED, result.outcome);
+        }
+        assertEquals(LOCATION_COUNT * SyncTestUtilities.RECORDED_FORECAST_DAYS,
+                count(WeatherEntry.CONTENT_URI));
+    }
+
+    public void testOneBadLocationDoesNotStopTheRest() {
+        List<ForecastSyncEngine.Request> requests = new ArrayList<ForecastSyncEngine.Request>();
+        for (int i = 0; i < ForecastSyncEngine.DEFAULT_BATCH_SIZE + 2; i++) {
+            String location = "Location " + i;
+            requests.add(new ForecastSyncEngine.Request(location, mServer.buildForecastUri(location)));
+        }
+        // Not an HTTP connection, so fetching it fails in a way fetch() doesn't expect.
+        int bad = requests.size() / 2;
+        requests.add(bad, new ForecastSyncEngine.Request("Nowhere",
+                Uri.fromFile(mContext.getCacheDir())));
+
+        List<ForecastSyncEngine.Result> results = new ForecastSyncEngine(mContext,
+                new ForecastResponseCache(mContext)).sync(requests);
+
+        assertEquals(requests.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ForecastSyncEngine.Result result = results.get(i);
+            if (i == bad) {
+                assertEquals(SunshineSyncAdapter.FORECAST_FAILED, result.outcome);
+                assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, result.status);
+            } else {
+                assertEquals("Error: " + result.locationSetting + " was not applied",
+                        SunshineSyncAdapter.FORECAST_APPLIED, result.outcome);
+            }
+        }
+        assertEquals(requests.size() - 1, count(LocationEntry.CONTENT_URI));
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Drives PostSyncDispatcher with recording consumers in place of the widgets, Muzei, Wear and
+    the notification.
+ */
+public class TestPostSyncDispatcher extends AndroidTestCase {
+
+    // Long enough that nothing goes out on its own unless a test waits for it.
+    private static final long LONG_WINDOW_MILLIS = 60 * 1000;
+    private static final long SHORT_WINDOW_MILLIS = 100;
+
+    static class RecordingConsumer implements PostSyncDispatcher.Consumer {
+        final List<Set<String>> calls =
+                Collections.synchronizedList(new ArrayList<Set<String>>());
+
+        @Override
+        public void onDataUpdated(Context context, Set<String> locationSettings) {
+            calls.add(locationSettings);
+        }
+    }
+
+    public void testBurstIsDispatchedOnce() {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(mContext, LONG_WINDOW_MILLIS);
+        RecordingConsumer widgets = new RecordingConsumer();
+        RecordingConsumer muzei = new RecordingConsumer();
+        dispatcher.register(widgets);
+        dispatcher.register(muzei);
+
+        // Rapid location edits: each sync reports its locations again.
+        String[] locations = {"94043", "10001", "94043", "London", "10001", "94043"};
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dataUpdated(locations[i % locations.length]);
+        }
+
+        assertEquals(3, dispatcher.dispatch());
+        assertEquals(1, widgets.calls.size());
+        assertEquals(1, muzei.calls.size());
+        // Each location once, in the order first seen.
+        assertEquals("[94043, 10001, London]", widgets.calls.get(0).toString());
+
+        assertEquals(20, dispatcher.getEventCount());
+        assertEquals(1, dispatcher.getDispatchCount());
+        assertEquals(2, dispatcher.getConsumerCallCount());
+        assertEquals(0, dispatcher.dispatch());
+        assertEquals(1, widgets.calls.size());
+    }
+
+    public void testWindowDispatchesOnItsOwn() {
+        final PostSyncDispatcher dispatcher =
+                new PostSyncDispatcher(mContext, SHORT_WINDOW_MILLIS);
+        final RecordingConsumer consumer = new RecordingConsumer();
+        dispatcher.register(consumer);
+        dispatcher.dataUpdated("94043");
+        dispatcher.dataUpdated("94043");
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return dispatcher.getDispatchCount() == 1
+                        && dispatcher.getConsumerCallCount() == 1;
+            }
+        }.run();
+        assertEquals(1, consumer.calls.size());
+
+        // A later sync gets a window of its own.
+        dispatcher.dataUpdated("94043");
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return dispatcher.getConsumerCallCount() == 2;
+            }
+        }.run();
+        assertEquals(2, consumer.calls.size());
+    }
+
+    public void testWakeLockIsHeldUntilDispatched() {
+        final PostSyncDispatcher dispatcher =
+                new PostSyncDispatcher(mContext, SHORT_WINDOW_MILLIS);
+        final boolean[] heldWhileDispatching = new boolean[1];
+        dispatcher.register(new PostSyncDispatcher.Consumer() {
+            @Override
+            public void onDataUpdated(Context context, Set<String> locationSettings) {
+                heldWhileDispatching[0] = dispatcher.isHoldingWakeLock();
+            }
+        });
+        assertFalse(dispatcher.isHoldingWakeLock());
+
+        dispatcher.dataUpdated("94043");
+        assertTrue("Error: the sync's update could be lost to sleep",
+                dispatcher.isHoldingWakeLock());
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return dispatcher.getConsumerCallCount() == 1
+                        && !dispatcher.isHoldingWakeLock();
+            }
+        }.run();
+        assertTrue("Error: the wake lock was let go before the consumers ran",
+                heldWhileDispatching[0]);
+    }
+
+    public void testPreferredLocationConsumerIgnoresOtherLocations() {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(mContext, LONG_WINDOW_MILLIS);
+        final int[] calls = new int[1];
+        dispatcher.register(new PostSyncDispatcher.PreferredLocationConsumer() {
+            @Override
+            protected void onPreferredLocationUpdated(Context context) {
+                calls[0]++;
+            }
+        });
+
+        String preferred = Utility.getPreferredLocation(mContext);
+        dispatcher.dataUpdated("not " + preferred);
+        dispatcher.dispatch();
+        assertEquals("Error: called for a location it doesn't show", 0, calls[0]);
+
+        dispatcher.dataUpdated("not " + preferred);
+        dispatcher.dataUpdated(preferred);
+        dispatcher.dispatch();
+        assertEquals(1, calls[0]);
+    }
+
+    public void testFailingConsumerDoesNotStopTheRest() {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(mContext, LONG_WINDOW_MILLIS);
+        dispatcher.register(new PostSyncDispatcher.Consumer() {
+            @Override
+            public void onDataUpdated(Context context, Set<String> locationSettings) {
+                throw new IllegalStateException("Muzei isn't installed");
+            }
+        });
+        RecordingConsumer consumer = new RecordingConsumer();
+        dispatcher.register(consumer);
+
+        dispatcher.dataUpdated("94043");
+        assertEquals(1, dispatcher.dispatch());
+        assertEquals(1, consumer.calls.size());
+
+        dispatcher.unregister(consumer);
+        dispatcher.dataUpdated("94043");
+        dispatcher.dispatch();
+        assertEquals(1, consumer.calls.size());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Checks which locations SunshineSyncAdapter keeps refreshing as the preferred location
+    changes, including to a location OWM doesn't know, and the status kept for each.
+ */
+public class TestTrackedLocations extends AndroidTestCase {
+
+    public void testPreferredLocationIsTrackedOnceFound() {
+        List<String> tracked = SunshineSyncAdapter.updateTrackedLocations(
+                Arrays.asList("10001", "London"), "94043",
+                Collections.singletonList(result("94043", SunshineSyncAdapter.LOCATION_STATUS_OK)));
+        assertEquals("[94043, 10001, London]", tracked.toString());
+
+        // Picked again, it moves back to the front rather than being added twice.
+        tracked = SunshineSyncAdapter.updateTrackedLocations(tracked, "London",
+                Collections.singletonList(result("London", SunshineSyncAdapter.LOCATION_STATUS_OK)));
+        assertEquals("[London, 94043, 10001]", tracked.toString());
+    }
+
+    public void testTypoIsNeverTracked() {
+        List<String> tracked = SunshineSyncAdapter.updateTrackedLocations(
+                Arrays.asList("94043"), "9404",
+                Collections.singletonList(result("9404", SunshineSyncAdapter.LOCATION_STATUS_INVALID)));
+        assertEquals("[94043]", tracked.toString());
+
+        // Nor is a location the server couldn't be asked about.
+        tracked = SunshineSyncAdapter.updateTrackedLocations(tracked, "10001",
+                Collections.singletonList(
+                        result("10001", SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN)));
+        assertEquals("[94043]", tracked.toString());
+    }
+
+    public void testLocationThatStopsExistingIsDropped() {
+        List<String> tracked = SunshineSyncAdapter.updateTrackedLocations(
+                Arrays.asList("94043", "Atlantis", "London"), "94043",
+                Arrays.asList(result("94043", SunshineSyncAdapter.LOCATION_STATUS_OK),
+                        result("Atlantis", SunshineSyncAdapter.LOCATION_STATUS_INVALID),
+                        result("London", SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN)));
+        assertEquals("[94043, London]", tracked.toString());
+    }
+
+    public void testTrackedLocationsAreBounded() {
+        List<String> tracked = new ArrayList<String>();
+        for (int i = 0; i < SunshineSyncAdapter.MAX_TRACKED_LOCATIONS; i++) {
+            tracked.add("Location " + i);
+        }
+        tracked = SunshineSyncAdapter.updateTrackedLocations(tracked, "94043",
+                Collections.singletonList(result("94043", SunshineSyncAdapter.LOCATION_STATUS_OK)));
+        assertEquals(SunshineSyncAdapter.MAX_TRACKED_LOCATIONS, tracked.size());
+        assertEquals("94043", tracked.get(0));
+        assertFalse("Error: the location picked longest ago was kept",
+                tracked.contains("Location " + (SunshineSyncAdapter.MAX_TRACKED_LOCATIONS - 1)));
+    }
+
+    public void testEachLocationKeepsItsOwnStatus() {
+        Map<String, Integer> previous = new HashMap<String, Integer>();
+        previous.put("London", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        previous.put("Atlantis", SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+
+        Map<String, Integer> statuses = SunshineSyncAdapter.updateLocationStatuses(previous,
+                Arrays.asList("94043", "10001", "London"), "9404",
+                Arrays.asList(result("9404", SunshineSyncAdapter.LOCATION_STATUS_INVALID),
+                        result("94043", SunshineSyncAdapter.LOCATION_STATUS_OK),
+                        result("10001", SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN)));
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, (int) statuses.get("9404"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, (int) statuses.get("94043"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, (int) statuses.get("10001"));
+        // Not synced this time, so the last status stands.
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, (int) statuses.get("London"));
+        assertFalse("Error: kept the status of a location no longer tracked",
+                statuses.containsKey("Atlantis"));
+    }
+
+    private static ForecastSyncEngine.Result result(String locationSetting, int status) {
+        ForecastSyncEngine.Result result = new ForecastSyncEngine.Result(
+                new ForecastSyncEngine.Request(locationSetting, Uri.EMPTY));
+        result.status = status;
+        return result;
+    }
+}
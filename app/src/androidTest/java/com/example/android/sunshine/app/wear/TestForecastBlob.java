@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayList;
+
+public class TestForecastBlob extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBlob.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TEST_DATE = WeatherContract.normalizeDate(1419033600000L);
+
+    public void testRoundTrip() {
+        byte[] blob = ForecastBlob.encode(createForecast(DAYS), DAYS);
+        assertEquals(ForecastBlob.HEADER_SIZE + DAYS * ForecastBlob.DAY_SIZE, blob.length);
+
+        ForecastBlob.Days days = ForecastBlob.decode(blob);
+        assertNotNull(days);
+        assertEquals(DAYS, days.count);
+        Time time = new Time();
+        time.set(TEST_DATE);
+        int firstJulianDay = Time.getJulianDay(TEST_DATE, time.gmtoff);
+        for (int day = 0; day < DAYS; day++) {
+            assertEquals(firstJulianDay + day, days.julianDays[day]);
+            assertEquals(800 + day, days.weatherIds[day]);
+            assertEquals(-5.5f + day, days.minTemps[day], 0.05f);
+            assertEquals(21.3f + day, days.maxTemps[day], 0.05f);
+            assertEquals(40 + day, days.humidities[day]);
+            assertEquals(3.7f + day, days.windSpeeds[day], 0.05f);
+        }
+    }
+
+    public void testEncodesAtMostMaxDays() {
+        ForecastBlob.Days days = ForecastBlob.decode(ForecastBlob.encode(createForecast(DAYS), 7));
+        assertEquals(7, days.count);
+        assertEquals(806, days.weatherIds[6]);
+
+        days = ForecastBlob.decode(ForecastBlob.encode(createForecast(0), 7));
+        assertEquals(0, days.count);
+    }
+
+    public void testRejectsOtherVersionsAndShortBlobs() {
+        byte[] blob = ForecastBlob.encode(createForecast(DAYS), DAYS);
+        byte[] truncated = new byte[blob.length - 1];
+        System.arraycopy(blob, 0, truncated, 0, truncated.length);
+        assertNull(ForecastBlob.decode(truncated));
+
+        blob[0] = ForecastBlob.VERSION + 1;
+        assertNull(ForecastBlob.decode(blob));
+        assertNull(ForecastBlob.decode(new byte[0]));
+        assertNull(ForecastBlob.decode(null));
+    }
+
+    /*
+        The same week as a DataMap with one nested DataMap per day, which is how it would
+        otherwise be sent.
+     */
+    public void testSmallerThanDataMap() {
+        byte[] blob = ForecastBlob.encode(createForecast(7), 7);
+
+        ArrayList<DataMap> dayMaps = new ArrayList<DataMap>();
+        MatrixCursor cursor = createForecast(7);
+        while (cursor.moveToNext()) {
+            DataMap day = new DataMap();
+            day.putLong(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getLong(ForecastBlob.COL_DATE));
+            day.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(ForecastBlob.COL_WEATHER_ID));
+            day.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(ForecastBlob.COL_MIN_TEMP));
+            day.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(ForecastBlob.COL_MAX_TEMP));
+            day.putDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, cursor.getDouble(ForecastBlob.COL_HUMIDITY));
+            day.putDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, cursor.getDouble(ForecastBlob.COL_WIND_SPEED));
+            dayMaps.add(day);
+        }
+        DataMap dataMap = new DataMap();
+        dataMap.putDataMapArrayList("forecast", dayMaps);
+        int dataMapSize = dataMap.toByteArray().length;
+
+        Log.d(LOG_TAG, "7 days: blob " + blob.length + " bytes, DataMap " + dataMapSize + " bytes");
+        assertTrue("Error: the blob is no smaller than a DataMap", blob.length < dataMapSize);
+    }
+
+    private static MatrixCursor createForecast(int count) {
+        MatrixCursor cursor = new MatrixCursor(ForecastBlob.FORECAST_COLUMNS);
+        for (int day = 0; day < count; day++) {
+            cursor.addRow(new Object[]{
+                    TEST_DATE + day * DAY_IN_MILLIS,
+                    800 + day,
+                    -5.5 + day,
+                    21.3 + day,
+                    40.0 + day,
+                    3.7 + day
+            });
+        }
+        return cursor;
+    }
+}
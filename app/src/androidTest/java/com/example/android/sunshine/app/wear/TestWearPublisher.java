@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Drives WearPublisher against a recording transport in place of the Wearable data layer.
+ */
+public class TestWearPublisher extends AndroidTestCase {
+
+    private static final String KEY = "value";
+    // Long enough that nothing goes out on its own unless a test waits for it.
+    private static final long LONG_WINDOW_MILLIS = 60 * 1000;
+    private static final long SHORT_WINDOW_MILLIS = 100;
+
+    private static final String PREFS_NAME = "test_wear_publisher";
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testRepeatedUpdatesCoalesce() {
+        RecordingTransport transport = new RecordingTransport();
+        WearPublisher publisher = new WearPublisher(transport, LONG_WINDOW_MILLIS, mPrefs);
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(createRequest("/weather", i));
+        }
+        publisher.publish(createRequest("/forecast", 0));
+        assertEquals(2, publisher.getQueueDepth());
+        assertEquals(2, publisher.getMaxQueueDepth());
+
+        assertEquals(2, publisher.flush());
+        assertEquals(1, transport.connects);
+        assertEquals(2, transport.sent.size());
+        // Only the latest of each path, in the order the paths were first queued.
+        assertEquals("/weather", transport.sent.get(0).getUri().getPath());
+        assertEquals(4, DataMap.fromByteArray(transport.sent.get(0).getData()).getInt(KEY));
+        assertEquals("/forecast", transport.sent.get(1).getUri().getPath());
+
+        assertEquals(4, publisher.getCoalescedCount());
+        assertEquals(2, publisher.getPublishedCount());
+        assertEquals(0, publisher.getQueueDepth());
+        assertEquals(0, publisher.flush());
+    }
+
+    public void testWindowFlushesOnItsOwn() {
+        final RecordingTransport transport = new RecordingTransport();
+        final WearPublisher publisher = new WearPublisher(transport, SHORT_WINDOW_MILLIS, mPrefs);
+        publisher.publish(createRequest("/weather", 1));
+        publisher.publish(createRequest("/weather", 2));
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return publisher.getPublishedCount() == 1;
+            }
+        }.run();
+        assertEquals(1, transport.sent.size());
+        assertEquals(2, DataMap.fromByteArray(transport.sent.get(0).getData()).getInt(KEY));
+        assertTrue(publisher.getLastLatencyMillis() >= SHORT_WINDOW_MILLIS);
+    }
+
+    public void testFailedConnectionDropsTheBatch() {
+        RecordingTransport transport = new RecordingTransport();
+        transport.connected = false;
+        WearPublisher publisher = new WearPublisher(transport, LONG_WINDOW_MILLIS, mPrefs);
+        publisher.publish(createRequest("/weather", 1));
+
+        assertEquals(0, publisher.flush());
+        assertEquals(0, transport.sent.size());
+        assertEquals(1, publisher.getFailedCount());
+        assertEquals(0, publisher.getQueueDepth());
+    }
+
+    public void testUnchangedContentsAreSuppressed() {
+        RecordingTransport transport = new RecordingTransport();
+        WearPublisher publisher = new WearPublisher(transport, LONG_WINDOW_MILLIS, mPrefs);
+        publisher.publish(createRequest("/weather", 1));
+        assertEquals(1, publisher.flush());
+
+        publisher.publish(createRequest("/weather", 1));
+        assertEquals(0, publisher.getQueueDepth());
+        assertEquals(1, publisher.getSuppressedCount());
+        assertEquals(0, publisher.flush());
+
+        publisher.publish(createRequest("/weather", 2));
+        assertEquals(1, publisher.flush());
+        assertEquals(2, transport.sent.size());
+        assertEquals(1, publisher.getSuppressedCount());
+    }
+
+    /*
+        Going back to what the watch has before the window passes sends nothing at all.
+     */
+    public void testRevertBeforeFlushDropsTheQueuedItem() {
+        RecordingTransport transport = new RecordingTransport();
+        WearPublisher publisher = new WearPublisher(transport, LONG_WINDOW_MILLIS, mPrefs);
+        publisher.publish(createRequest("/weather", 1));
+        publisher.flush();
+
+        publisher.publish(createRequest("/weather", 2));
+        publisher.publish(createRequest("/weather", 1));
+        assertEquals(0, publisher.getQueueDepth());
+        assertEquals(0, publisher.flush());
+        assertEquals(1, transport.sent.size());
+    }
+
+    public void testFailedPutIsNotRemembered() {
+        RecordingTransport transport = new RecordingTransport();
+        transport.connected = false;
+        WearPublisher publisher = new WearPublisher(transport, LONG_WINDOW_MILLIS, mPrefs);
+        publisher.publish(createRequest("/weather", 1));
+        assertEquals(0, publisher.flush());
+
+        transport.connected = true;
+        publisher.publish(createRequest("/weather", 1));
+        assertEquals(0, publisher.getSuppressedCount());
+        assertEquals(1, publisher.flush());
+    }
+
+    /*
+        A sync in a new process still knows what the watch was last sent.
+     */
+    public void testFingerprintOutlivesThePublisher() {
+        RecordingTransport transport = new RecordingTransport();
+        WearPublisher first = new WearPublisher(transport, LONG_WINDOW_MILLIS, mPrefs);
+        first.publish(createRequest("/weather", 1));
+        first.flush();
+
+        WearPublisher second = new WearPublisher(transport, LONG_WINDOW_MILLIS, mPrefs);
+        second.publish(createRequest("/weather", 1));
+        assertEquals(1, second.getSuppressedCount());
+        assertEquals(0, second.flush());
+        assertEquals(1, transport.sent.size());
+    }
+
+    private static PutDataMapRequest createRequest(String path, int value) {
+        PutDataMapRequest request = PutDataMapRequest.create(path);
+        request.getDataMap().putInt(KEY, value);
+        return request;
+    }
+
+    private static class RecordingTransport implements WearPublisher.Transport {
+        final List<PutDataRequest> sent = new ArrayList<PutDataRequest>();
+        volatile boolean connected = true;
+        int connects;
+
+        @Override
+        public boolean connect() {
+            connects++;
+            return connected;
+        }
+
+        @Override
+        public boolean putDataItem(PutDataRequest request) {
+            synchronized (sent) {
+                sent.add(request);
+            }
+            return true;
+        }
+    }
+}
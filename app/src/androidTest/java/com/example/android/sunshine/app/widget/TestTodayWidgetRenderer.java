@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.appwidget.AppWidgetManager;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.util.SparseIntArray;
+import android.widget.RemoteViews;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    The Today widget renderer is run against 50 pretend widgets, a third of them each of small,
+    default and large, and every call it makes to the host is counted, since each one is a
+    binder call to the AppWidgetManager.  Before, every widget cost an options call and an
+    update call of its own.
+ */
+public class TestTodayWidgetRenderer extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTodayWidgetRenderer.class.getSimpleName();
+
+    private static final int WIDGETS = 50;
+    // Widths in dp, either side of widget_today_default_width and widget_today_large_width.
+    private static final int SMALL_DP = 60;
+    private static final int DEFAULT_DP = 160;
+    private static final int LARGE_DP = 300;
+
+    static class CountingHost implements TodayWidgetRenderer.Host {
+        final int[] appWidgetIds;
+        final SparseIntArray widthsDp = new SparseIntArray();
+        int idsCalls;
+        int optionsCalls;
+        final List<int[]> updates = new ArrayList<int[]>();
+        final List<RemoteViews> views = new ArrayList<RemoteViews>();
+
+        CountingHost(int widgets) {
+            appWidgetIds = new int[widgets];
+            int[] widths = {SMALL_DP, DEFAULT_DP, LARGE_DP};
+            for (int i = 0; i < widgets; i++) {
+                appWidgetIds[i] = 100 + i;
+                widthsDp.put(appWidgetIds[i], widths[i % widths.length]);
+            }
+        }
+
+        @Override
+        public int[] getAppWidgetIds() {
+            idsCalls++;
+            return appWidgetIds;
+        }
+
+        @Override
+        public Bundle getAppWidgetOptions(int appWidgetId) {
+            optionsCalls++;
+            Bundle options = new Bundle();
+            options.putInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH, widthsDp.get(appWidgetId));
+            return options;
+        }
+
+        @Override
+        public void updateAppWidget(int[] appWidgetIds, RemoteViews views) {
+            updates.add(appWidgetIds);
+            this.views.add(views);
+        }
+
+        int binderCalls() {
+            return idsCalls + optionsCalls + updates.size();
+        }
+
+        void reset() {
+            idsCalls = 0;
+            optionsCalls = 0;
+            updates.clear();
+            views.clear();
+        }
+    }
+
+    public void testOneUpdatePerLayout() {
+        CountingHost host = new CountingHost(WIDGETS);
+        TodayWidgetRenderer renderer = new TodayWidgetRenderer(mContext, host);
+
+        assertEquals(3, renderer.render(R.drawable.art_clear, "Clear", "21", "12"));
+        assertEquals("Error: more than one update per layout", 3, host.updates.size());
+
+        // Every widget is sent exactly one layout, the one for its width.
+        SparseIntArray sent = new SparseIntArray();
+        for (int i = 0; i < host.updates.size(); i++) {
+            int layoutId = host.views.get(i).getLayoutId();
+            for (int appWidgetId : host.updates.get(i)) {
+                assertTrue("Error: widget " + appWidgetId + " was updated twice",
+                        sent.indexOfKey(appWidgetId) < 0);
+                sent.put(appWidgetId, layoutId);
+            }
+        }
+        assertEquals(WIDGETS, sent.size());
+        for (int appWidgetId : host.appWidgetIds) {
+            assertEquals("Error: wrong layout for widget " + appWidgetId,
+                    expectedLayout(host.widthsDp.get(appWidgetId)), sent.get(appWidgetId));
+        }
+
+        int legacyCalls = 1 + 2 * WIDGETS;
+        Log.d(LOG_TAG, WIDGETS + " widgets: " + host.binderCalls()
+                + " binder calls, one update per widget would be " + legacyCalls);
+        assertEquals(1 + WIDGETS + 3, host.binderCalls());
+    }
+
+    public void testUnchangedWidgetsAreSkipped() {
+        CountingHost host = new CountingHost(WIDGETS);
+        TodayWidgetRenderer renderer = new TodayWidgetRenderer(mContext, host);
+        renderer.render(R.drawable.art_clear, "Clear", "21", "12");
+        host.reset();
+
+        assertEquals(0, renderer.render(R.drawable.art_clear, "Clear", "21", "12"));
+        assertEquals("Error: unchanged widgets were updated", 0, host.updates.size());
+        assertEquals(1 + WIDGETS, host.binderCalls());
+
+        // A new forecast goes to everyone, still one call per layout.
+        host.reset();
+        assertEquals(3, renderer.render(R.drawable.art_rain, "Rain", "17", "11"));
+    }
+
+    public void testResizedWidgetIsRenderedAlone() {
+        CountingHost host = new CountingHost(WIDGETS);
+        TodayWidgetRenderer renderer = new TodayWidgetRenderer(mContext, host);
+        renderer.render(R.drawable.art_clear, "Clear", "21", "12");
+        host.reset();
+
+        int resized = host.appWidgetIds[0];
+        host.widthsDp.put(resized, LARGE_DP);
+        // And one that only grew within its layout.
+        host.widthsDp.put(host.appWidgetIds[2], LARGE_DP + 100);
+
+        assertEquals(1, renderer.render(R.drawable.art_clear, "Clear", "21", "12"));
+        assertEquals(1, host.updates.get(0).length);
+        assertEquals(resized, host.updates.get(0)[0]);
+        assertEquals(R.layout.widget_today_large, host.views.get(0).getLayoutId());
+    }
+
+    public void testForgottenWidgetIsRenderedAgain() {
+        CountingHost host = new CountingHost(WIDGETS);
+        TodayWidgetRenderer renderer = new TodayWidgetRenderer(mContext, host);
+        renderer.render(R.drawable.art_clear, "Clear", "21", "12");
+        host.reset();
+
+        renderer.forget(new int[] {host.appWidgetIds[7]});
+        assertEquals(1, renderer.render(R.drawable.art_clear, "Clear", "21", "12"));
+        assertEquals(host.appWidgetIds[7], host.updates.get(0)[0]);
+    }
+
+    private static int expectedLayout(int widthDp) {
+        if (widthDp == LARGE_DP) {
+            return R.layout.widget_today_large;
+        } else if (widthDp == DEFAULT_DP) {
+            return R.layout.widget_today;
+        }
+        return R.layout.widget_today_small;
+    }
+}
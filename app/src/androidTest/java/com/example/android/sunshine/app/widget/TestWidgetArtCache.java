@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    The widget art cache is tried with an "art pack" of the app's own art, as android.resource
+    URIs, so it loads without a network.  A second pack is the same art under another URL
+    format.  Timings are only logged.
+ */
+public class TestWidgetArtCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWidgetArtCache.class.getSimpleName();
+
+    private static final int SIZE = 48;
+    // Two weeks of forecast: 14 rows, but only a handful of conditions.
+    private static final int[] FORTNIGHT = {
+            800, 801, 801, 500, 501, 500, 800, 800, 803, 600, 601, 800, 801, 211
+    };
+
+    private String mArtPack;
+    private String mOtherArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mArtPack = "android.resource://" + mContext.getPackageName() + "/drawable/art_%s";
+        mOtherArtPack = mArtPack + "?pack=other";
+    }
+
+    public void testFortnightIsLoadedOncePerCondition() {
+        WidgetArtCache cache = new WidgetArtCache(1024 * 1024);
+
+        long start = SystemClock.elapsedRealtime();
+        int loaded = cache.prefetch(mContext, FORTNIGHT, mArtPack, SIZE);
+        long coldMillis = SystemClock.elapsedRealtime() - start;
+        // 800, 801, 500, 501, 803, 600, 601 and 211.
+        assertEquals("Error: each condition's art should be loaded once", 8, loaded);
+
+        start = SystemClock.elapsedRealtime();
+        assertEquals("Error: cached art was loaded again",
+                0, cache.prefetch(mContext, FORTNIGHT, mArtPack, SIZE));
+        long warmMillis = SystemClock.elapsedRealtime() - start;
+
+        int bitmapBytes = 0;
+        for (int weatherId : FORTNIGHT) {
+            Bitmap bitmap = cache.get(weatherId, mArtPack, SIZE);
+            assertNotNull("Error: no art for " + weatherId, bitmap);
+            assertTrue("Error: art for " + weatherId + " wasn't scaled down to " + SIZE,
+                    bitmap.getWidth() <= SIZE && bitmap.getHeight() <= SIZE);
+            assertEquals("Error: art for " + weatherId + " wasn't fitted to " + SIZE,
+                    SIZE, Math.max(bitmap.getWidth(), bitmap.getHeight()));
+            bitmapBytes += WidgetArtCache.getByteCount(bitmap);
+        }
+        assertTrue("Error: 14 rows would send " + bitmapBytes + " bitmap bytes",
+                bitmapBytes <= DetailWidgetRemoteViewsService.BITMAP_BYTES_BUDGET);
+
+        Log.d(LOG_TAG, "Fortnight prefetch: cold " + coldMillis + "ms, warm " + warmMillis
+                + "ms, " + bitmapBytes + " bitmap bytes for 14 rows");
+    }
+
+    public void testArtIsKeyedByPackAndSize() {
+        WidgetArtCache cache = new WidgetArtCache(1024 * 1024);
+        int[] clear = {800};
+        assertEquals(1, cache.prefetch(mContext, clear, mArtPack, SIZE));
+
+        assertNull("Error: art from another pack was handed back",
+                cache.get(800, mOtherArtPack, SIZE));
+        assertNull("Error: art at another size was handed back",
+                cache.get(800, mArtPack, SIZE * 2));
+
+        assertEquals(1, cache.prefetch(mContext, clear, mOtherArtPack, SIZE));
+        assertEquals(1, cache.prefetch(mContext, clear, mArtPack, SIZE * 2));
+        assertEquals(SIZE * 2, cache.get(800, mArtPack, SIZE * 2).getWidth());
+        assertNotNull(cache.get(800, mArtPack, SIZE));
+    }
+
+    public void testCacheIsBoundedByBytes() {
+        // Room for two bitmaps of SIZE, whatever their config.
+        int maxBytes = 2 * SIZE * SIZE * 4;
+        WidgetArtCache cache = new WidgetArtCache(maxBytes);
+        cache.prefetch(mContext, FORTNIGHT, mArtPack, SIZE);
+        assertTrue("Error: the cache grew to " + cache.size() + " bytes",
+                cache.size() <= maxBytes);
+        // The most recently loaded art is still there.
+        assertNotNull(cache.get(211, mArtPack, SIZE));
+    }
+
+    public void testConditionsWithoutArtAreSkipped() {
+        WidgetArtCache cache = new WidgetArtCache(1024 * 1024);
+        assertEquals(0, cache.prefetch(mContext, new int[] {0, 199, 905}, mArtPack, SIZE));
+        assertEquals(0, cache.size());
+    }
+}
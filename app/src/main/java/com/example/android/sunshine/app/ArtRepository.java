@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Art pack bitmaps kept on disk, for callers that can't wait on the network for them, like the
+ * notification.
+ *
+ * {@link #getArt} never waits on the network.  If the art is on disk it's decoded from there;
+ * if not, the built-in art for the condition is handed back at once and the art pack's art is
+ * fetched in the background for next time.  {@link #prefetch} fetches every condition's art
+ * for a pack, for when the user picks another one.
+ *
+ * Files are kept in the cache directory, one per art URL and size, so conditions that share
+ * art share a file, and art packs and sizes never get each other's art.
+ */
+public class ArtRepository {
+
+    private static final String LOG_TAG = ArtRepository.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "art";
+    // A few sizes of a few packs; anything past this was least recently fetched.
+    private static final int MAX_FILES = 64;
+    private static final long FETCH_TIMEOUT_SECONDS = 15;
+
+    // A condition for each piece of art, so prefetching a pack fetches all of it.
+    private static final int[] ONE_OF_EACH = {200, 300, 500, 600, 701, 800, 801, 802};
+
+    private static ArtRepository sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final ExecutorService mExecutor;
+
+    // Guarded by itself, as are the counters below.
+    private final Set<String> mFetching = new HashSet<String>();
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mFetchCount;
+    private int mFailedCount;
+
+    public static synchronized ArtRepository getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new ArtRepository(appContext,
+                    new File(appContext.getCacheDir(), DIRECTORY_NAME));
+        }
+        return sInstance;
+    }
+
+    ArtRepository(Context context, File directory) {
+        mContext = context;
+        mDirectory = directory;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ArtRepository");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * The art for weatherId from the art pack the user chose, at about width by height.  Doesn't
+     * wait on the network, but may read the disk.
+     *
+     * @return the art pack's art if it's been fetched, otherwise the built-in art; null if
+     * there's no art for weatherId
+     */
+    public Bitmap getArt(int weatherId, int width, int height) {
+        if (Utility.usingLocalGraphics(mContext)) {
+            return decodeResource(weatherId);
+        }
+        return getArt(weatherId, Utility.getPreferredArtPack(mContext), width, height);
+    }
+
+    public Bitmap getArt(int weatherId, String artPack, int width, int height) {
+        String artUrl = Utility.getArtUrlForWeatherCondition(artPack, weatherId);
+        if (artUrl == null) {
+            return null;
+        }
+        File file = getFile(artUrl, width, height);
+        Bitmap bitmap = file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+        synchronized (mFetching) {
+            if (bitmap != null) {
+                mHitCount++;
+                return bitmap;
+            }
+            mMissCount++;
+        }
+        fetch(artUrl, width, height);
+        return decodeResource(weatherId);
+    }
+
+    /**
+     * Fetch every condition's art from artPack at width by height in the background, skipping
+     * whatever is on disk already.
+     */
+    public void prefetch(String artPack, int width, int height) {
+        for (int weatherId : ONE_OF_EACH) {
+            String artUrl = Utility.getArtUrlForWeatherCondition(artPack, weatherId);
+            if (!getFile(artUrl, width, height).exists()) {
+                fetch(artUrl, width, height);
+            }
+        }
+    }
+
+    /**
+     * @return whether the art for weatherId from artPack at width by height is on disk
+     */
+    public boolean isCached(int weatherId, String artPack, int width, int height) {
+        String artUrl = Utility.getArtUrlForWeatherCondition(artPack, weatherId);
+        return artUrl != null && getFile(artUrl, width, height).exists();
+    }
+
+    /**
+     * @return how many lookups found the art on disk
+     */
+    public int getHitCount() {
+        synchronized (mFetching) {
+            return mHitCount;
+        }
+    }
+
+    /**
+     * @return how many lookups fell back to the built-in art
+     */
+    public int getMissCount() {
+        synchronized (mFetching) {
+            return mMissCount;
+        }
+    }
+
+    public int getFetchCount() {
+        synchronized (mFetching) {
+            return mFetchCount;
+        }
+    }
+
+    public int getFailedCount() {
+        synchronized (mFetching) {
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * @return the number of fetches queued or running
+     */
+    public int getPendingCount() {
+        synchronized (mFetching) {
+            return mFetching.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mFetching) {
+            return "hits " + mHitCount + ", misses " + mMissCount + ", fetched " + mFetchCount
+                    + ", failed " + mFailedCount + ", pending " + mFetching.size();
+        }
+    }
+
+    private void fetch(final String artUrl, final int width, final int height) {
+        final File file = getFile(artUrl, width, height);
+        synchronized (mFetching) {
+            if (!mFetching.add(file.getName())) {
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean fetched = false;
+                try {
+                    fetched = !file.exists() && download(artUrl, width, height, file);
+                } finally {
+                    synchronized (mFetching) {
+                        mFetching.remove(file.getName());
+                        if (fetched) {
+                            mFetchCount++;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean download(String artUrl, int width, int height, File file) {
+        Bitmap bitmap;
+        try {
+            bitmap = Glide.with(mContext)
+                    .load(artUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(width, height).get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            Log.e(LOG_TAG, "Error retrieving art from " + artUrl, e);
+            synchronized (mFetching) {
+                mFailedCount++;
+            }
+            return false;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create " + mDirectory);
+            return false;
+        }
+        // Written under another name first, so a lookup never sees half a file.
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error storing art from " + artUrl, e);
+            temp.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failing.
+                }
+            }
+        }
+        trim();
+        return true;
+    }
+
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private Bitmap decodeResource(int weatherId) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artResourceId == -1) {
+            return null;
+        }
+        return BitmapFactory.decodeResource(mContext.getResources(), artResourceId);
+    }
+
+    private File getFile(String artUrl, int width, int height) {
+        return new File(mDirectory, Hashes.sha1Hex(artUrl) + "_" + width + "x" + height + ".png");
+    }
+}
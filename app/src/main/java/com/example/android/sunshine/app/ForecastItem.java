@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * One row of the forecast list, with everything {@link ForecastAdapter} shows already
+ * formatted, so binding a row is only a matter of handing these to its views.  Immutable.
+ *
+ * Built by {@link ForecastListLoader} off the main thread, from a row of
+ * {@link ForecastFragment#FORECAST_COLUMNS}.
+ */
+public final class ForecastItem {
+    public final long date;
+    public final int weatherId;
+    public final String locationSetting;
+    public final String coordLat;
+    public final String coordLong;
+
+    // For the "today" layout and for the other rows.
+    public final int artResourceId;
+    public final int iconResourceId;
+    // Null when using the built-in art.
+    public final String artUrl;
+
+    // "Today, June 24" if this is today, for the today layout; otherwise the same as dateText.
+    public final String longDateText;
+    public final String dateText;
+    public final String description;
+    public final String descriptionA11y;
+    public final String highText;
+    public final String highA11y;
+    public final String lowText;
+    public final String lowA11y;
+    public final String transitionName;
+
+    ForecastItem(Context context, Cursor cursor, boolean useLocalGraphics) {
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        locationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+        coordLat = cursor.getString(ForecastFragment.COL_COORD_LAT);
+        coordLong = cursor.getString(ForecastFragment.COL_COORD_LONG);
+
+        artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = useLocalGraphics
+                ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        dateText = Utility.getFriendlyDayString(context, date, false);
+        String longDate = Utility.getFriendlyDayString(context, date, true);
+        longDateText = longDate.equals(dateText) ? dateText : longDate;
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        highText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        highA11y = context.getString(R.string.a11y_high_temp, highText);
+        lowText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view.  Keyed by date, like the
+        // row's id, so it doesn't change when the rows above it go.
+        transitionName = "iconView" + date;
+    }
+
+    /**
+     * @return whether a row bound to this would look exactly like one bound to other
+     */
+    boolean hasSameContents(ForecastItem other) {
+        return date == other.date
+                && artResourceId == other.artResourceId
+                && iconResourceId == other.iconResourceId
+                && equals(artUrl, other.artUrl)
+                && longDateText.equals(other.longDateText)
+                && dateText.equals(other.dateText)
+                // The accessibility strings are made from these.
+                && description.equals(other.description)
+                && highText.equals(other.highText)
+                && lowText.equals(other.lowText);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the forecast list for a location as {@link ForecastItem}s, formatted in the loader's
+ * background thread.  Each load also works out, in the same thread, how the list differs from
+ * the one loaded before it, so the adapter can update only the rows that changed.
+ *
+ * Like a CursorLoader it watches the query's URI and loads again whenever anything under it
+ * changes, which includes a change of units or art pack.  It also loads again when started on
+ * a later day than the last load, since "Today" and "Tomorrow" would be wrong by then.
+ */
+public class ForecastListLoader extends AsyncTaskLoader<ForecastListLoader.Result> {
+
+    /**
+     * A loaded list, and how to get to it from the list before.
+     */
+    public static final class Result {
+        public final List<ForecastItem> items;
+        // The list this was diffed against, and the diff; null if there wasn't one.
+        final List<ForecastItem> previous;
+        final DiffUtil.DiffResult diff;
+
+        Result(List<ForecastItem> items, List<ForecastItem> previous, DiffUtil.DiffResult diff) {
+            this.items = items;
+            this.previous = previous;
+            this.diff = diff;
+        }
+    }
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSortOrder;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+
+    // Read by the loading thread to diff against.
+    private volatile Result mResult;
+    private long mLoadedDay;
+
+    public ForecastListLoader(Context context, Uri uri, String[] projection, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSortOrder = sortOrder;
+    }
+
+    @Override
+    public Result loadInBackground() {
+        Result last = mResult;
+        return diff(last == null ? null : last.items, queryItems());
+    }
+
+    /**
+     * @param previous the list items replaces, or null if there isn't one
+     */
+    static Result diff(List<ForecastItem> previous, List<ForecastItem> items) {
+        if (previous == null) {
+            return new Result(items, null, null);
+        }
+        // The rows are in date order and keyed by date, so none of them can move.
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                new ItemDiffCallback(previous, items), false);
+        return new Result(items, previous, diff);
+    }
+
+    private List<ForecastItem> queryItems() {
+        Context context = getContext();
+        Cursor cursor = context.getContentResolver().query(mUri, mProjection, null, null,
+                mSortOrder);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            boolean useLocalGraphics = Utility.usingLocalGraphics(context);
+            List<ForecastItem> items = new ArrayList<ForecastItem>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                items.add(new ForecastItem(context, cursor, useLocalGraphics));
+            }
+            return Collections.unmodifiableList(items);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(Result result) {
+        if (isReset()) {
+            return;
+        }
+        if (result != mResult) {
+            mResult = result;
+            mLoadedDay = today();
+        }
+        if (isStarted()) {
+            super.deliverResult(result);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+        if (mResult != null) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null || mLoadedDay != today()) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mResult = null;
+    }
+
+    private static long today() {
+        return WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    private static class ItemDiffCallback extends DiffUtil.Callback {
+        private final List<ForecastItem> mOld;
+        private final List<ForecastItem> mNew;
+
+        ItemDiffCallback(List<ForecastItem> oldItems, List<ForecastItem> newItems) {
+            mOld = oldItems;
+            mNew = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.get(oldItemPosition).date == mNew.get(newItemPosition).date;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            // Rows that only shift keep their binding.  The adapter rebinds the first row
+            // itself when another row takes it over, for the today layout.
+            return mOld.get(oldItemPosition).hasSameContents(mNew.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The date formatting behind the date helpers in {@link Utility}, without a new Time or
+ * SimpleDateFormat for every date.
+ *
+ * Each thread keeps its own formatters, since SimpleDateFormat isn't thread safe, and builds
+ * them again after the default locale or time zone changes.  Strings for dates in the current
+ * week are remembered until the day, the UTC offset, the locale or the time zone changes, so
+ * formatting one of those again allocates nothing.
+ *
+ * As before, which day a date falls on is worked out with the UTC offset in effect now, and
+ * the names are formatted in the default time zone.
+ */
+public final class FriendlyDateFormatter {
+
+    // Julian day of January 1st, 1970, as in android.text.format.Time.
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final int DAYS_REMEMBERED = 7;
+
+    // What a remembered string is, alongside the date it's for.
+    private static final int KIND_FRIENDLY = 0;
+    private static final int KIND_FRIENDLY_LONG_TODAY = 1;
+    private static final int KIND_FULL_FRIENDLY = 2;
+    private static final int KIND_DAY_NAME = 3;
+    private static final int KIND_MONTH_DAY = 4;
+    private static final int KIND_COUNT = 5;
+
+    // Bumped when the time zone or locale changes, so every thread's formatters are rebuilt.
+    private static volatile int sGeneration;
+    private static volatile boolean sReceiverRegistered;
+
+    private static final ThreadLocal<Formatters> sFormatters = new ThreadLocal<Formatters>() {
+        @Override
+        protected Formatters initialValue() {
+            return new Formatters();
+        }
+    };
+
+    private FriendlyDateFormatter() {
+    }
+
+    /**
+     * The Julian day millis falls on, at a UTC offset of gmtoff seconds.  The same as
+     * {@link android.text.format.Time#getJulianDay}.
+     */
+    public static int getJulianDay(long millis, long gmtoff) {
+        return (int) ((millis + gmtoff * 1000) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * The UTC offset of timeZone at millis, in seconds, as {@link android.text.format.Time}
+     * would have it in gmtoff.
+     */
+    public static long getGmtOffset(TimeZone timeZone, long millis) {
+        return timeZone.getOffset(millis) / 1000;
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString
+     */
+    public static String getFriendlyDayString(Context context, long dateInMillis,
+                                              boolean displayLongToday) {
+        return getFriendlyDayString(context, dateInMillis, displayLongToday,
+                System.currentTimeMillis());
+    }
+
+    static String getFriendlyDayString(Context context, long dateInMillis,
+                                       boolean displayLongToday, long now) {
+        Formatters formatters = get(context, now);
+        int julianDay = getJulianDay(dateInMillis, formatters.gmtoff);
+        int kind = displayLongToday ? KIND_FRIENDLY_LONG_TODAY : KIND_FRIENDLY;
+        String remembered = formatters.recall(julianDay, dateInMillis, kind);
+        if (remembered != null) {
+            return remembered;
+        }
+
+        String friendly;
+        if (displayLongToday && julianDay == formatters.today) {
+            // "Today, June 24"
+            friendly = context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today),
+                    getFormattedMonthDay(context, dateInMillis, now));
+        } else if (julianDay < formatters.today + 7) {
+            // Less than a week in the future, just the day name.
+            friendly = getDayName(context, dateInMillis, now);
+        } else {
+            // Otherwise, "Mon Jun 03".
+            friendly = formatters.shortDate.format(dateInMillis);
+        }
+        formatters.remember(julianDay, dateInMillis, kind, friendly);
+        return friendly;
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString
+     */
+    public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        return getFullFriendlyDayString(context, dateInMillis, System.currentTimeMillis());
+    }
+
+    static String getFullFriendlyDayString(Context context, long dateInMillis, long now) {
+        Formatters formatters = get(context, now);
+        int julianDay = getJulianDay(dateInMillis, formatters.gmtoff);
+        String remembered = formatters.recall(julianDay, dateInMillis, KIND_FULL_FRIENDLY);
+        if (remembered != null) {
+            return remembered;
+        }
+        String full = context.getString(R.string.format_full_friendly_date,
+                getDayName(context, dateInMillis, now),
+                getFormattedMonthDay(context, dateInMillis, now));
+        formatters.remember(julianDay, dateInMillis, KIND_FULL_FRIENDLY, full);
+        return full;
+    }
+
+    /**
+     * @see Utility#getDayName
+     */
+    public static String getDayName(Context context, long dateInMillis) {
+        return getDayName(context, dateInMillis, System.currentTimeMillis());
+    }
+
+    static String getDayName(Context context, long dateInMillis, long now) {
+        Formatters formatters = get(context, now);
+        int julianDay = getJulianDay(dateInMillis, formatters.gmtoff);
+        String remembered = formatters.recall(julianDay, dateInMillis, KIND_DAY_NAME);
+        if (remembered != null) {
+            return remembered;
+        }
+        String dayName;
+        if (julianDay == formatters.today) {
+            dayName = context.getString(R.string.today);
+        } else if (julianDay == formatters.today + 1) {
+            dayName = context.getString(R.string.tomorrow);
+        } else {
+            // The day of the week, e.g "Wednesday".
+            dayName = formatters.dayName.format(dateInMillis);
+        }
+        formatters.remember(julianDay, dateInMillis, KIND_DAY_NAME, dayName);
+        return dayName;
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay
+     */
+    public static String getFormattedMonthDay(Context context, long dateInMillis) {
+        return getFormattedMonthDay(context, dateInMillis, System.currentTimeMillis());
+    }
+
+    static String getFormattedMonthDay(Context context, long dateInMillis, long now) {
+        Formatters formatters = get(context, now);
+        int julianDay = getJulianDay(dateInMillis, formatters.gmtoff);
+        String remembered = formatters.recall(julianDay, dateInMillis, KIND_MONTH_DAY);
+        if (remembered != null) {
+            return remembered;
+        }
+        String monthDay = formatters.monthDay.format(dateInMillis);
+        formatters.remember(julianDay, dateInMillis, KIND_MONTH_DAY, monthDay);
+        return monthDay;
+    }
+
+    /**
+     * Throw away every thread's formatters and remembered strings.  Happens by itself when the
+     * system's time zone or locale changes; tests that change the defaults call it directly.
+     */
+    static void invalidate() {
+        sGeneration++;
+    }
+
+    private static Formatters get(Context context, long now) {
+        registerReceiver(context);
+        Formatters formatters = sFormatters.get();
+        formatters.update(sGeneration, now);
+        return formatters;
+    }
+
+    private static void registerReceiver(Context context) {
+        if (sReceiverRegistered) {
+            return;
+        }
+        synchronized (FriendlyDateFormatter.class) {
+            if (sReceiverRegistered) {
+                return;
+            }
+            IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    invalidate();
+                }
+            }, filter);
+            sReceiverRegistered = true;
+        }
+    }
+
+    /**
+     * One thread's formatters, and the strings it has made for the current week.
+     */
+    private static final class Formatters {
+        int generation = -1;
+        Locale locale;
+        TimeZone timeZone;
+        SimpleDateFormat shortDate;
+        SimpleDateFormat dayName;
+        SimpleDateFormat monthDay;
+
+        // The UTC offset now, in seconds, and today's Julian day at that offset.
+        long gmtoff;
+        int today;
+
+        // By day from today and kind; each slot holds the string for one date.
+        final long[] dates = new long[DAYS_REMEMBERED * KIND_COUNT];
+        final String[] strings = new String[DAYS_REMEMBERED * KIND_COUNT];
+
+        void update(int currentGeneration, long now) {
+            Locale currentLocale = Locale.getDefault();
+            if (generation != currentGeneration || locale != currentLocale) {
+                generation = currentGeneration;
+                locale = currentLocale;
+                timeZone = TimeZone.getDefault();
+                shortDate = new SimpleDateFormat("EEE MMM dd");
+                dayName = new SimpleDateFormat("EEEE");
+                monthDay = new SimpleDateFormat("MMMM dd");
+                forget();
+            }
+
+            long currentGmtoff = getGmtOffset(timeZone, now);
+            int currentToday = getJulianDay(now, currentGmtoff);
+            if (currentGmtoff != gmtoff || currentToday != today) {
+                gmtoff = currentGmtoff;
+                today = currentToday;
+                forget();
+            }
+        }
+
+        String recall(int julianDay, long dateInMillis, int kind) {
+            int slot = slot(julianDay, kind);
+            if (slot == -1 || strings[slot] == null || dates[slot] != dateInMillis) {
+                return null;
+            }
+            return strings[slot];
+        }
+
+        void remember(int julianDay, long dateInMillis, int kind, String string) {
+            int slot = slot(julianDay, kind);
+            if (slot != -1) {
+                dates[slot] = dateInMillis;
+                strings[slot] = string;
+            }
+        }
+
+        private int slot(int julianDay, int kind) {
+            int day = julianDay - today;
+            if (day < 0 || day >= DAYS_REMEMBERED) {
+                return -1;
+            }
+            return day * KIND_COUNT + kind;
+        }
+
+        private void forget() {
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * SHA-1 hashes as lowercase hex, for naming cache files and telling contents apart.
+ */
+public final class Hashes {
+
+    private static final String SHA1_ALGORITHM = "SHA-1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Matches what {@link #sha1Hex} returns, and nothing else.
+     */
+    public static final Pattern SHA1_HEX_PATTERN = Pattern.compile("[0-9a-f]{40}");
+
+    private Hashes() {
+    }
+
+    /**
+     * @return a new SHA-1 digest, for hashing a stream as it goes by
+     */
+    public static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance(SHA1_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to provide SHA-1.
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String sha1Hex(byte[] bytes) {
+        return toHex(newSha1().digest(bytes));
+    }
+
+    /**
+     * @return the SHA-1 of the UTF-8 encoding of value
+     */
+    public static String sha1Hex(String value) {
+        return sha1Hex(value.getBytes(UTF_8));
+    }
+
+    /**
+     * @return whether value could have come from {@link #sha1Hex}
+     */
+    public static boolean isSha1Hex(String value) {
+        return value != null && SHA1_HEX_PATTERN.matcher(value).matches();
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
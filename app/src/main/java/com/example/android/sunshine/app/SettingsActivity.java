@@ -178,6 +178,8 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // and start fetching the new pack's art for the notification
+            SunshineSyncAdapter.prefetchNotificationArt(this);
         }
     }
 
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * The weather condition lookups behind {@link Utility}, as tables indexed by OpenWeatherMap
+ * condition id, built once when the class is loaded.
+ *
+ * Conditions fall into a handful of kinds that share an icon, art, art pack name and image;
+ * each id in range maps to its kind in one byte.  Descriptions are finer grained and have a
+ * table of their own.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+
+    static final int MIN_ID = 200;
+    static final int MAX_ID = 962;
+
+    // Kind 0 is "no relation"; its entries are what the lookups return for it.
+    private static final byte KIND_NONE = 0;
+    private static final byte KIND_STORM = 1;
+    private static final byte KIND_LIGHT_RAIN = 2;
+    private static final byte KIND_RAIN = 3;
+    private static final byte KIND_SNOW = 4;
+    private static final byte KIND_FOG = 5;
+    // Storm graphics, but raised dust for the image.
+    private static final byte KIND_TORNADO = 6;
+    private static final byte KIND_CLEAR = 7;
+    private static final byte KIND_LIGHT_CLOUDS = 8;
+    private static final byte KIND_CLOUDS = 9;
+
+    private static final int[] KIND_ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] KIND_ARTS = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // What goes into an art pack's URL format.
+    private static final String[] KIND_ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] KIND_IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // By id - MIN_ID.  A description of 0 means there isn't one.
+    private static final byte[] sKinds = new byte[MAX_ID - MIN_ID + 1];
+    private static final int[] sDescriptions = new int[MAX_ID - MIN_ID + 1];
+
+    static {
+        kind(200, 232, KIND_STORM);
+        kind(300, 321, KIND_LIGHT_RAIN);
+        kind(500, 504, KIND_RAIN);
+        kind(511, 511, KIND_SNOW);
+        kind(520, 531, KIND_RAIN);
+        kind(600, 622, KIND_SNOW);
+        kind(701, 761, KIND_FOG);
+        kind(781, 781, KIND_TORNADO);
+        kind(800, 800, KIND_CLEAR);
+        kind(801, 801, KIND_LIGHT_CLOUDS);
+        kind(802, 804, KIND_CLOUDS);
+
+        description(200, 232, R.string.condition_2xx);
+        description(300, 321, R.string.condition_3xx);
+        description(500, R.string.condition_500);
+        description(501, R.string.condition_501);
+        description(502, R.string.condition_502);
+        description(503, R.string.condition_503);
+        description(504, R.string.condition_504);
+        description(511, R.string.condition_511);
+        description(520, R.string.condition_520);
+        description(531, R.string.condition_531);
+        description(600, R.string.condition_600);
+        description(601, R.string.condition_601);
+        description(602, R.string.condition_602);
+        description(611, R.string.condition_611);
+        description(612, R.string.condition_612);
+        description(615, R.string.condition_615);
+        description(616, R.string.condition_616);
+        description(620, R.string.condition_620);
+        description(621, R.string.condition_621);
+        description(622, R.string.condition_622);
+        description(701, R.string.condition_701);
+        description(711, R.string.condition_711);
+        description(721, R.string.condition_721);
+        description(731, R.string.condition_731);
+        description(741, R.string.condition_741);
+        description(751, R.string.condition_751);
+        description(761, R.string.condition_761);
+        description(762, R.string.condition_762);
+        description(771, R.string.condition_771);
+        description(781, R.string.condition_781);
+        description(800, R.string.condition_800);
+        description(801, R.string.condition_801);
+        description(802, R.string.condition_802);
+        description(803, R.string.condition_803);
+        description(804, R.string.condition_804);
+        description(900, R.string.condition_900);
+        description(901, R.string.condition_901);
+        description(902, R.string.condition_902);
+        description(903, R.string.condition_903);
+        description(904, R.string.condition_904);
+        description(905, R.string.condition_905);
+        description(906, R.string.condition_906);
+        description(951, R.string.condition_951);
+        description(952, R.string.condition_952);
+        description(953, R.string.condition_953);
+        description(954, R.string.condition_954);
+        description(955, R.string.condition_955);
+        description(956, R.string.condition_956);
+        description(957, R.string.condition_957);
+        description(958, R.string.condition_958);
+        description(959, R.string.condition_959);
+        description(960, R.string.condition_960);
+        description(961, R.string.condition_961);
+        description(962, R.string.condition_962);
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return the icon for weatherId, or -1 if there isn't one
+     */
+    static int getIconResource(int weatherId) {
+        return KIND_ICONS[kindOf(weatherId)];
+    }
+
+    /**
+     * @return the art for weatherId, or -1 if there isn't any
+     */
+    static int getArtResource(int weatherId) {
+        return KIND_ARTS[kindOf(weatherId)];
+    }
+
+    /**
+     * @return the name an art pack's URL format is filled in with, or null if there isn't one
+     */
+    static String getArtName(int weatherId) {
+        return KIND_ART_NAMES[kindOf(weatherId)];
+    }
+
+    /**
+     * @return the URL of a photo for weatherId, or null if there isn't one
+     */
+    static String getImageUrl(int weatherId) {
+        return KIND_IMAGE_URLS[kindOf(weatherId)];
+    }
+
+    /**
+     * @return the string resource describing weatherId, or 0 if there isn't one
+     */
+    static int getDescriptionResource(int weatherId) {
+        if (weatherId < MIN_ID || weatherId > MAX_ID) {
+            return 0;
+        }
+        return sDescriptions[weatherId - MIN_ID];
+    }
+
+    private static int kindOf(int weatherId) {
+        if (weatherId < MIN_ID || weatherId > MAX_ID) {
+            return KIND_NONE;
+        }
+        return sKinds[weatherId - MIN_ID];
+    }
+
+    private static void kind(int first, int last, byte kind) {
+        for (int id = first; id <= last; id++) {
+            sKinds[id - MIN_ID] = kind;
+        }
+    }
+
+    private static void description(int first, int last, int stringId) {
+        for (int id = first; id <= last; id++) {
+            sDescriptions[id - MIN_ID] = stringId;
+        }
+    }
+
+    private static void description(int id, int stringId) {
+        sDescriptions[id - MIN_ID] = stringId;
+    }
+}
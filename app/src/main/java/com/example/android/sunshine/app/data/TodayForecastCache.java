@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Today's forecast for each location, kept in memory for everything that only shows the
+ * current conditions: the today widget, Muzei, the daily notification and the watch face.
+ *
+ * "Today" is the first stored day from the current one on, the same row the today widget has
+ * always shown.  The sync puts each location's new forecast here as soon as it is committed;
+ * anything else reads through {@link #get}, which only goes to the provider on a miss.
+ * {@link WeatherProvider} drops a location's entry whenever it changes that location's
+ * weather, and entries from an earlier day are never returned.
+ *
+ * The cache is shared by the whole process.  Everything in Sunshine runs in the one process,
+ * so that includes every writer.
+ */
+public final class TodayForecastCache {
+
+    /**
+     * What the current-conditions consumers need from today's row.  Immutable.
+     */
+    public static final class Snapshot {
+        public final String locationSetting;
+        public final long date;
+        public final int weatherId;
+        public final String shortDesc;
+        public final double high;
+        public final double low;
+
+        // The normalized day this was looked up on; it's stale once that's over.
+        final long today;
+
+        Snapshot(String locationSetting, long today, long date, int weatherId, String shortDesc,
+                 double high, double low) {
+            this.locationSetting = locationSetting;
+            this.today = today;
+            this.date = date;
+            this.weatherId = weatherId;
+            this.shortDesc = shortDesc;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    private static final Map<String, Snapshot> sSnapshots = new HashMap<String, Snapshot>();
+    // Bumped by every put and invalidation, so a load that raced with a write isn't kept.
+    private static int sGeneration;
+
+    private static int sHits;
+    private static int sMisses;
+
+    private TodayForecastCache() {
+    }
+
+    /**
+     * Today's forecast for locationSetting, from memory if it's there and from the provider
+     * otherwise.  A miss queries the provider, so don't call this on the main thread.
+     *
+     * @return null if nothing is stored from today on for that location
+     */
+    public static Snapshot get(Context context, String locationSetting) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        int generation;
+        synchronized (sSnapshots) {
+            Snapshot snapshot = sSnapshots.get(locationSetting);
+            if (snapshot != null && snapshot.today == today) {
+                sHits++;
+                return snapshot;
+            }
+            sMisses++;
+            generation = sGeneration;
+        }
+
+        Snapshot snapshot = query(context, locationSetting, today);
+        if (snapshot != null) {
+            synchronized (sSnapshots) {
+                if (generation == sGeneration) {
+                    sSnapshots.put(locationSetting, snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Record a forecast that has just been committed for locationSetting.
+     *
+     * @param days the location's rows, in date order, as handed to the provider
+     */
+    public static void put(String locationSetting, List<ContentValues> days) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (ContentValues values : days) {
+            long date = WeatherContract.normalizeDate(values.getAsLong(WeatherEntry.COLUMN_DATE));
+            if (date < today) {
+                continue;
+            }
+            Snapshot snapshot = new Snapshot(locationSetting, today, date,
+                    values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+            synchronized (sSnapshots) {
+                sGeneration++;
+                sSnapshots.put(locationSetting, snapshot);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Forget locationSetting's forecast.  Called by the provider when its weather changes.
+     */
+    static void invalidate(String locationSetting) {
+        synchronized (sSnapshots) {
+            sGeneration++;
+            sSnapshots.remove(locationSetting);
+        }
+    }
+
+    /**
+     * Forget every location's forecast.
+     */
+    static void invalidateAll() {
+        synchronized (sSnapshots) {
+            sGeneration++;
+            sSnapshots.clear();
+        }
+    }
+
+    static int getHitCount() {
+        synchronized (sSnapshots) {
+            return sHits;
+        }
+    }
+
+    static int getMissCount() {
+        synchronized (sSnapshots) {
+            return sMisses;
+        }
+    }
+
+    private static Snapshot query(Context context, String locationSetting, long today) {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, today);
+        Cursor cursor = context.getContentResolver().query(uri, TODAY_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Snapshot(locationSetting, today,
+                    cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -15,25 +15,81 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * On Honeycomb and later the database uses write-ahead logging, so the sync adapter's write
+ * transactions don't hold up the UI, widgets and Muzei, which read from their own connections
+ * in the pool and see the last committed data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version and add a
+    // step to WeatherDbMigration.MIGRATIONS.
+    static final int DATABASE_VERSION = 3;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the weather/* and weather/*/# joins: once location_setting has picked the location,
+    // the rows for it are read in date order straight off the index.  The UNIQUE (date,
+    // location_id) constraint's index leads with the date, so it only helps the date-only
+    // deletes that trim old rows.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // Number of WAL pages after which a commit checkpoints the log back into the database.
+    // SQLite's own default; a sync writes a few hundred pages at most.
+    static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    private final int mWalAutoCheckpointPages;
+
     public WeatherDbHelper(Context context) {
+        this(context, DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * @param walAutoCheckpointPages WAL size in pages that triggers a checkpoint on commit, or 0
+     *                               to only checkpoint when the last connection is closed
+     */
+    WeatherDbHelper(Context context, int walAutoCheckpointPages) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Before Jelly Bean the helper can't do this for us.
+            db.enableWriteAheadLogging();
+        }
+        pragma(db, "wal_autocheckpoint=" + mWalAutoCheckpointPages);
+    }
+
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        // These pragmas return a row, which execSQL refuses on some versions.
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -81,16 +137,26 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createIndexes(sqLiteDatabase);
+    }
+
+    private static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ");");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // Keep the forecast we already have, so the first launch after an upgrade has something
+        // to show before the next sync.
+        if (WeatherDbMigration.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
+
+        // No way to get here from oldVersion.  This database is only a cache for online data,
+        // so discard the data and start over.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * One step in upgrading weather.db from one schema version to the next, keeping the rows that
+ * are already there.
+ *
+ * Steps run in order inside the transaction SQLiteOpenHelper opens for onUpgrade, so a failed
+ * step leaves the database at the version it started from.  A step must only use SQL written
+ * against the schema of its own versions, never the current onCreate, since later versions
+ * are free to change that.
+ */
+abstract class WeatherDbMigration {
+
+    /**
+     * Every migration, in order.  Add one for each new DATABASE_VERSION in
+     * {@link WeatherDbHelper}; databases older than the first step are rebuilt from scratch.
+     */
+    static final WeatherDbMigration[] MIGRATIONS = {
+            // 2 -> 3: index weather by location and date for the weather/* joins.
+            new WeatherDbMigration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date ON "
+                            + WeatherEntry.TABLE_NAME + " ("
+                            + WeatherEntry.COLUMN_LOC_KEY + ", "
+                            + WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+    };
+
+    final int fromVersion;
+
+    WeatherDbMigration(int fromVersion) {
+        this.fromVersion = fromVersion;
+    }
+
+    int toVersion() {
+        return fromVersion + 1;
+    }
+
+    abstract void migrate(SQLiteDatabase db);
+
+    /**
+     * Run every step from oldVersion up to newVersion.
+     *
+     * @return false, having changed nothing, if some step in between is missing
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int first = -1;
+        for (int i = 0; i < MIGRATIONS.length; i++) {
+            if (MIGRATIONS[i].fromVersion == oldVersion) {
+                first = i;
+                break;
+            }
+        }
+        if (first == -1) {
+            return false;
+        }
+
+        // Check the whole chain is there before touching anything.
+        int version = oldVersion;
+        int last = first;
+        while (version < newVersion) {
+            if (last >= MIGRATIONS.length || MIGRATIONS[last].fromVersion != version) {
+                return false;
+            }
+            version = MIGRATIONS[last++].toVersion();
+        }
+
+        for (int i = first; i < last; i++) {
+            MIGRATIONS[i].migrate(db);
+        }
+        return true;
+    }
+}
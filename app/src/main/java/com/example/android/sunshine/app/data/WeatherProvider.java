@@ -17,12 +17,22 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +40,41 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // State of the batch the calling thread is applying, if any.
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    /**
+     * The writes a thread has made since its outermost insert, update, delete, bulkInsert or
+     * applyBatch call began.  Weather changes are tracked by location, so that when the
+     * outermost call returns each affected weather/[location_setting] uri is notified once,
+     * however many rows or operations touched it.  Inside applyBatch, weather inserts also share
+     * one set of compiled statements.
+     */
+    private static final class Batch {
+        final Set<Long> changedLocationIds = new LinkedHashSet<Long>();
+        final Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        // Set when we can't tell which locations changed.
+        boolean allWeatherChanged;
+        int depth;
+        boolean failed;
+        boolean transaction;
+        WeatherUpsert upsert;
+
+        void weatherChanged(Long locationId) {
+            if (locationId != null) {
+                changedLocationIds.add(locationId);
+            } else {
+                allWeatherChanged = true;
+            }
+        }
+    }
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +91,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -228,30 +267,42 @@ public class WeatherProvider extends ContentProvider {
     public Uri insert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final Batch batch = openBatch();
+        boolean success = false;
         Uri returnUri;
 
-        switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
-            }
-            case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+        try {
+            switch (match) {
+                case WEATHER: {
+                    if (batch.transaction && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                        returnUri = insertInBatch(db, batch, uri, values);
+                        break;
+                    }
+                    normalizeDate(values);
+                    long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    batch.weatherChanged(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                    break;
+                }
+                case LOCATION: {
+                    long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    batch.changedUris.add(uri);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            success = true;
+        } finally {
+            closeBatch(batch, success);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -259,24 +310,36 @@ public class WeatherProvider extends ContentProvider {
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final Batch batch = openBatch();
+        boolean success = false;
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
-        }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        try {
+            switch (match) {
+                case WEATHER: {
+                    List<Long> locationIds = queryWeatherLocationIds(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        batch.changedLocationIds.addAll(locationIds);
+                    }
+                    break;
+                }
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    // Because a null deletes all rows
+                    if (rowsDeleted != 0) {
+                        batch.changedUris.add(uri);
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            success = true;
+        } finally {
+            closeBatch(batch, success);
         }
         return rowsDeleted;
     }
@@ -294,23 +357,41 @@ public class WeatherProvider extends ContentProvider {
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final Batch batch = openBatch();
+        boolean success = false;
         int rowsUpdated;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
-        }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        try {
+            switch (match) {
+                case WEATHER: {
+                    normalizeDate(values);
+                    List<Long> locationIds = queryWeatherLocationIds(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    if (rowsUpdated != 0) {
+                        batch.changedLocationIds.addAll(locationIds);
+                        // Rows may also have been moved to another location.
+                        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                            batch.weatherChanged(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                        }
+                    }
+                    break;
+                }
+                case LOCATION:
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    if (rowsUpdated != 0) {
+                        batch.changedUris.add(uri);
+                        // The join shows location columns too.
+                        batch.allWeatherChanged = true;
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            success = true;
+        } finally {
+            closeBatch(batch, success);
         }
         return rowsUpdated;
     }
@@ -321,27 +402,245 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
+                final Batch batch = openBatch();
+                boolean success = false;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
+                    int returnCount;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                        returnCount = bulkUpsertWeather(db, batch, values);
+                    } else {
+                        returnCount = bulkInsertWeather(db, batch, values);
                     }
-                    db.setTransactionSuccessful();
+                    success = true;
+                    return returnCount;
                 } finally {
-                    db.endTransaction();
+                    closeBatch(batch, success);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    private int bulkInsertWeather(SQLiteDatabase db, Batch batch, ContentValues[] values) {
+        db.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                if (_id != -1) {
+                    returnCount++;
+                    batch.weatherChanged(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Writes the weather rows through one set of compiled statements.  Rows that are already
+     * stored with the same values are not rewritten, and only locations with a row that was
+     * actually inserted or changed are reported to observers.
+     *
+     * @return the number of rows that are now stored as given
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int bulkUpsertWeather(SQLiteDatabase db, Batch batch, ContentValues[] values) {
+        int returnCount = 0;
+        beginWriteTransaction(db);
+        WeatherUpsert upsert = new WeatherUpsert(db);
+        try {
+            for (ContentValues value : values) {
+                switch (upsert.upsert(value)) {
+                    case WeatherUpsert.INSERTED:
+                    case WeatherUpsert.UPDATED:
+                        batch.changedLocationIds.add(upsert.getLocationId());
+                        returnCount++;
+                        break;
+                    case WeatherUpsert.UNCHANGED:
+                        returnCount++;
+                        break;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Uri insertInBatch(SQLiteDatabase db, Batch batch, Uri uri, ContentValues values) {
+        if (batch.upsert == null) {
+            batch.upsert = new WeatherUpsert(db);
+        }
+        int result = batch.upsert.upsert(values);
+        if (result == WeatherUpsert.FAILED) {
+            throw new android.database.SQLException("Failed to insert row into " + uri);
+        }
+        if (result != WeatherUpsert.UNCHANGED) {
+            batch.changedLocationIds.add(batch.upsert.getLocationId());
+        }
+        return WeatherContract.WeatherEntry.buildWeatherUri(batch.upsert.getRowId());
+    }
+
+    /**
+     * Applies the operations in a single transaction, so they are committed or rolled back as a
+     * whole.  Observers hear about each changed location once, after the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Batch batch = openBatch();
+        boolean success = false;
+        boolean outerTransaction = batch.transaction;
+        batch.transaction = true;
+        ContentProviderResult[] results;
+        beginWriteTransaction(db);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            if (!outerTransaction) {
+                batch.transaction = false;
+                if (batch.upsert != null) {
+                    batch.upsert.close();
+                    batch.upsert = null;
+                }
+            }
+            db.endTransaction();
+            closeBatch(batch, success);
+        }
+        return results;
+    }
+
+    /**
+     * With write-ahead logging enabled by {@link WeatherDbHelper}, a non-exclusive transaction
+     * lets the loaders, widgets and Muzei keep reading the last committed data while the sync
+     * adapter writes.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Join the calling thread's batch, or start one.  Every write goes through a batch, even a
+     * single insert, so observers are always notified the same way.
+     */
+    private Batch openBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.depth++;
+        return batch;
+    }
+
+    /**
+     * Leave the batch.  When the outermost write finishes, send the notifications it collected,
+     * unless it failed, in which case nothing was committed.
+     */
+    private void closeBatch(Batch batch, boolean success) {
+        if (!success) {
+            batch.failed = true;
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
+        mBatch.remove();
+        if (!batch.failed) {
+            dispatch(batch);
+        }
+    }
+
+    /**
+     * One notification per weather/[location_setting] that changed, then one for each other uri.
+     * Observers of weather/ itself, like the forecast list's loader, hear each of them.
+     *
+     * {@link TodayForecastCache} is cleared for the same locations first, so anyone requerying
+     * on the notification doesn't get the old forecast back from it.
+     */
+    private void dispatch(Batch batch) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (!batch.changedUris.isEmpty()) {
+            // A location was added, renamed or removed, which may change what any setting means.
+            TodayForecastCache.invalidateAll();
+        }
+        if (batch.allWeatherChanged) {
+            TodayForecastCache.invalidateAll();
+            resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        } else if (!batch.changedLocationIds.isEmpty()) {
+            List<String> locationSettings = queryLocationSettings(batch.changedLocationIds);
+            if (locationSettings.size() < batch.changedLocationIds.size()) {
+                // Some of those locations are gone, so there's no narrower uri to use.
+                TodayForecastCache.invalidateAll();
+                resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            } else {
+                for (String locationSetting : locationSettings) {
+                    TodayForecastCache.invalidate(locationSetting);
+                    resolver.notifyChange(
+                            WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), null);
+                }
+            }
+        }
+        for (Uri uri : batch.changedUris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    private static List<Long> queryWeatherLocationIds(SQLiteDatabase db, String selection,
+                                                      String[] selectionArgs) {
+        List<Long> locationIds = new ArrayList<Long>();
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    private List<String> queryLocationSettings(Set<Long> locationIds) {
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID + " IN (");
+        String[] selectionArgs = new String[locationIds.size()];
+        int i = 0;
+        for (Long locationId : locationIds) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i++] = Long.toString(locationId);
+        }
+        selection.append(')');
+
+        List<String> locationSettings = new ArrayList<String>(locationIds.size());
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSettings;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
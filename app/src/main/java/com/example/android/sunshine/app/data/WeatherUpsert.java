@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes weather rows through statements compiled once per transaction.
+ *
+ * A row is keyed by its location and date.  If a row with that key already holds the same
+ * values it is left alone; if the values differ it is updated in place; otherwise it is
+ * inserted.  Each row first goes through an UPDATE guarded on the values differing, then, if
+ * that changed nothing, an INSERT OR IGNORE, so an unchanged row costs two key lookups and
+ * writes nothing.  Unlike an insert against the table's ON CONFLICT REPLACE constraint, this
+ * never deletes a row just to write it back.
+ *
+ * Needs SQLiteStatement.executeUpdateDelete, so Honeycomb or later.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class WeatherUpsert {
+
+    static final int FAILED = 0;
+    static final int INSERTED = 1;
+    static final int UPDATED = 2;
+    static final int UNCHANGED = 3;
+
+    // Bind indices, shared by all three statements.
+    private static final int BIND_LOC_KEY = 1;
+    private static final int BIND_DATE = 2;
+    private static final int BIND_SHORT_DESC = 3;
+    private static final int BIND_WEATHER_ID = 4;
+    private static final int BIND_MIN_TEMP = 5;
+    private static final int BIND_MAX_TEMP = 6;
+    private static final int BIND_HUMIDITY = 7;
+    private static final int BIND_PRESSURE = 8;
+    private static final int BIND_WIND_SPEED = 9;
+    private static final int BIND_DEGREES = 10;
+
+    private static final String SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+            + WeatherEntry.COLUMN_SHORT_DESC + " = ?3, "
+            + WeatherEntry.COLUMN_WEATHER_ID + " = ?4, "
+            + WeatherEntry.COLUMN_MIN_TEMP + " = ?5, "
+            + WeatherEntry.COLUMN_MAX_TEMP + " = ?6, "
+            + WeatherEntry.COLUMN_HUMIDITY + " = ?7, "
+            + WeatherEntry.COLUMN_PRESSURE + " = ?8, "
+            + WeatherEntry.COLUMN_WIND_SPEED + " = ?9, "
+            + WeatherEntry.COLUMN_DEGREES + " = ?10"
+            + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?1"
+            + " AND " + WeatherEntry.COLUMN_DATE + " = ?2"
+            + " AND NOT (" + WeatherEntry.COLUMN_SHORT_DESC + " IS ?3"
+            + " AND " + WeatherEntry.COLUMN_WEATHER_ID + " IS ?4"
+            + " AND " + WeatherEntry.COLUMN_MIN_TEMP + " IS ?5"
+            + " AND " + WeatherEntry.COLUMN_MAX_TEMP + " IS ?6"
+            + " AND " + WeatherEntry.COLUMN_HUMIDITY + " IS ?7"
+            + " AND " + WeatherEntry.COLUMN_PRESSURE + " IS ?8"
+            + " AND " + WeatherEntry.COLUMN_WIND_SPEED + " IS ?9"
+            + " AND " + WeatherEntry.COLUMN_DEGREES + " IS ?10)";
+
+    // OR IGNORE overrides the table's REPLACE: a row that is already there was left alone by
+    // the update above because it is identical, so there is nothing to do.
+    private static final String SQL_INSERT = "INSERT OR IGNORE INTO " + WeatherEntry.TABLE_NAME
+            + " (" + WeatherEntry.COLUMN_LOC_KEY + ", "
+            + WeatherEntry.COLUMN_DATE + ", "
+            + WeatherEntry.COLUMN_SHORT_DESC + ", "
+            + WeatherEntry.COLUMN_WEATHER_ID + ", "
+            + WeatherEntry.COLUMN_MIN_TEMP + ", "
+            + WeatherEntry.COLUMN_MAX_TEMP + ", "
+            + WeatherEntry.COLUMN_HUMIDITY + ", "
+            + WeatherEntry.COLUMN_PRESSURE + ", "
+            + WeatherEntry.COLUMN_WIND_SPEED + ", "
+            + WeatherEntry.COLUMN_DEGREES
+            + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10)";
+
+    private static final String SQL_SELECT_ID = "SELECT " + WeatherEntry._ID
+            + " FROM " + WeatherEntry.TABLE_NAME
+            + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?1"
+            + " AND " + WeatherEntry.COLUMN_DATE + " = ?2";
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mInsert;
+    private SQLiteStatement mSelectId;
+
+    private long mLocationId;
+    private long mDate;
+    private long mRowId = -1;
+
+    WeatherUpsert(SQLiteDatabase db) {
+        mDb = db;
+        mUpdate = db.compileStatement(SQL_UPDATE);
+        mInsert = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Write one row.  The date is normalized the same way the provider's insert does it.
+     *
+     * @return one of FAILED, INSERTED, UPDATED or UNCHANGED
+     */
+    int upsert(ContentValues values) {
+        mRowId = -1;
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        Long weatherId = values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID);
+        Double minTemp = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        Double maxTemp = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        Double pressure = values.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeed = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+        if (locationId == null || date == null || shortDesc == null || weatherId == null
+                || minTemp == null || maxTemp == null || humidity == null || pressure == null
+                || windSpeed == null || degrees == null) {
+            // Every column is NOT NULL, so this row could never be stored.
+            return FAILED;
+        }
+
+        mLocationId = locationId;
+        mDate = WeatherContract.normalizeDate(date);
+        bind(mUpdate, shortDesc, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed,
+                degrees);
+        if (mUpdate.executeUpdateDelete() > 0) {
+            return UPDATED;
+        }
+
+        bind(mInsert, shortDesc, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed,
+                degrees);
+        mRowId = mInsert.executeInsert();
+        return mRowId != -1 ? INSERTED : UNCHANGED;
+    }
+
+    /**
+     * @return the location of the row written by the last call to {@link #upsert}.
+     */
+    long getLocationId() {
+        return mLocationId;
+    }
+
+    /**
+     * @return the _ID of the row written by the last call to {@link #upsert}.
+     */
+    long getRowId() {
+        if (mRowId == -1) {
+            if (mSelectId == null) {
+                mSelectId = mDb.compileStatement(SQL_SELECT_ID);
+            }
+            mSelectId.bindLong(BIND_LOC_KEY, mLocationId);
+            mSelectId.bindLong(BIND_DATE, mDate);
+            mRowId = mSelectId.simpleQueryForLong();
+        }
+        return mRowId;
+    }
+
+    void close() {
+        mUpdate.close();
+        mInsert.close();
+        if (mSelectId != null) {
+            mSelectId.close();
+        }
+    }
+
+    private void bind(SQLiteStatement statement, String shortDesc, long weatherId,
+                      double minTemp, double maxTemp, double humidity, double pressure,
+                      double windSpeed, double degrees) {
+        statement.bindLong(BIND_LOC_KEY, mLocationId);
+        statement.bindLong(BIND_DATE, mDate);
+        statement.bindString(BIND_SHORT_DESC, shortDesc);
+        statement.bindLong(BIND_WEATHER_ID, weatherId);
+        statement.bindDouble(BIND_MIN_TEMP, minTemp);
+        statement.bindDouble(BIND_MAX_TEMP, maxTemp);
+        statement.bindDouble(BIND_HUMIDITY, humidity);
+        statement.bindDouble(BIND_PRESSURE, pressure);
+        statement.bindDouble(BIND_WIND_SPEED, windSpeed);
+        statement.bindDouble(BIND_DEGREES, degrees);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Hashes;
+import com.example.android.sunshine.app.R;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves Muzei the weather photos from our own storage, so it doesn't have to download them
+ * again every time the weather changes back to something it has shown before.
+ *
+ * {@link #fetch} downloads a photo once and hands back a content URI for it.  There are only a
+ * handful of photos, so they're all kept.  Muzei reads them from its own process, which is why
+ * this provider is exported; it only ever opens the photos, and only for reading.
+ */
+public class WeatherArtworkProvider extends ContentProvider {
+
+    private static final String LOG_TAG = WeatherArtworkProvider.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "muzei";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final AtomicInteger sServedCount = new AtomicInteger();
+    private static final AtomicLong sBytesServed = new AtomicLong();
+
+    /**
+     * Download the photo at imageUrl unless we have it already.  Blocks, so not on the main
+     * thread.
+     *
+     * @return a content URI for the photo, or null if it couldn't be downloaded
+     */
+    public static Uri fetch(Context context, String imageUrl) {
+        String name = Hashes.sha1Hex(imageUrl);
+        File file = getArtworkFile(context, name);
+        if (file.exists() || download(imageUrl, file)) {
+            return buildArtworkUri(context, name);
+        }
+        return null;
+    }
+
+    /**
+     * @return how many times Muzei, or anyone, opened a photo
+     */
+    public static int getServedCount() {
+        return sServedCount.get();
+    }
+
+    /**
+     * @return the bytes of the photos opened, which would otherwise have been downloaded
+     */
+    public static long getBytesServed() {
+        return sBytesServed.get();
+    }
+
+    static Uri buildArtworkUri(Context context, String name) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getString(R.string.muzei_artwork_authority))
+                .appendPath(name)
+                .build();
+    }
+
+    static File getArtworkFile(Context context, String name) {
+        return new File(new File(context.getFilesDir(), DIRECTORY_NAME), name);
+    }
+
+    private static boolean download(String imageUrl, File file) {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create " + directory);
+            return false;
+        }
+
+        // Written under another name first, so Muzei never sees half a photo.
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        URLConnection connection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            connection = new URL(imageUrl).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            if (connection instanceof HttpURLConnection
+                    && ((HttpURLConnection) connection).getResponseCode()
+                    != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Unable to download " + imageUrl + ": "
+                        + ((HttpURLConnection) connection).getResponseCode());
+                return false;
+            }
+            in = connection.getInputStream();
+            out = new FileOutputStream(temp);
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error downloading " + imageUrl, e);
+            temp.delete();
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("Artwork is read only: " + uri);
+        }
+        String name = uri.getLastPathSegment();
+        // Only ever a name made by Hashes.sha1Hex, so nothing outside our directory can be named.
+        if (!Hashes.isSha1Hex(name)) {
+            throw new FileNotFoundException("Unknown uri: " + uri);
+        }
+        File file = getArtworkFile(getContext(), name);
+        ParcelFileDescriptor descriptor =
+                ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        sServedCount.incrementAndGet();
+        sBytesServed.addAndGet(file.length());
+        return descriptor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        // Every weather photo is a JPEG.
+        return "image/jpeg";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+}
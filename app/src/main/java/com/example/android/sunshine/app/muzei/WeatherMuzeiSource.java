@@ -15,28 +15,30 @@
  */
 package com.example.android.sunshine.app.muzei;
 
+import android.content.ContentResolver;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
+import android.util.Log;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.TodayForecastCache;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Muzei source that changes your background based on the current weather conditions
+ *
+ * Artwork is only published when the condition or location has changed since the last time, and
+ * its image is served from {@link WeatherArtworkProvider} rather than the network where it can be.
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
+    private static final String LOG_TAG = WeatherMuzeiSource.class.getSimpleName();
+
+    private static final AtomicInteger sSkippedPublishCount = new AtomicInteger();
 
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
@@ -55,25 +57,57 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        TodayForecastCache.Snapshot today = TodayForecastCache.get(this, location);
+        if (today != null) {
+            String imageUrl = Utility.getImageUrlForWeatherCondition(today.weatherId);
             // Only publish a new wallpaper if we have a valid image
             if (imageUrl != null) {
+                String token = getToken(today.weatherId, location);
+                if (!shouldPublish(getCurrentArtwork(), token, reason)) {
+                    sSkippedPublishCount.incrementAndGet();
+                    Log.d(LOG_TAG, "Artwork for " + token + " already published, skipped "
+                            + sSkippedPublishCount.get() + ", served "
+                            + WeatherArtworkProvider.getBytesServed() + " bytes locally");
+                    return;
+                }
+                // Fall back on the network if the image couldn't be downloaded for now.
+                Uri imageUri = WeatherArtworkProvider.fetch(this, imageUrl);
+                if (imageUri == null) {
+                    imageUri = Uri.parse(imageUrl);
+                }
                 publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
+                        .imageUri(imageUri)
+                        .title(today.shortDesc)
                         .byline(location)
+                        .token(token)
                         .viewIntent(new Intent(this, MainActivity.class))
                         .build());
             }
         }
-        cursor.close();
+    }
+
+    /**
+     * @return how many updates left the artwork as it was, as nothing it shows had changed
+     */
+    public static int getSkippedPublishCount() {
+        return sSkippedPublishCount.get();
+    }
+
+    static String getToken(int weatherId, String location) {
+        return weatherId + "|" + location;
+    }
+
+    /**
+     * Whether artwork for token needs publishing, given what was published last.  The same
+     * artwork is published again only when Muzei asks for it outright, or when it was last
+     * published with the network image and may now be served locally.
+     */
+    static boolean shouldPublish(Artwork current, String token, int reason) {
+        if (reason == UPDATE_REASON_INITIAL || current == null
+                || !token.equals(current.getToken())) {
+            return true;
+        }
+        Uri imageUri = current.getImageUri();
+        return imageUri == null || !ContentResolver.SCHEME_CONTENT.equals(imageUri.getScheme());
     }
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Hashes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+
+/**
+ * A small on-disk cache of OpenWeatherMap responses, keyed by the request URL.
+ *
+ * For every URL we keep the HTTP validators (ETag and Last-Modified) so the next request can be
+ * made conditional, a hash of the body that was last written to the database, and the body
+ * itself so it can be applied again if the database lost the rows while the server still says
+ * "not modified".
+ */
+public class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "forecast";
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Bump this if the layout of the .meta files changes; older files are then ignored.
+    private static final int META_VERSION = 1;
+
+
+    private final File mCacheDir;
+
+    /**
+     * What we know about the last response applied for a URL.
+     */
+    public static final class Entry {
+        public final String etag;
+        public final String lastModified;
+        public final String bodyHash;
+        // Julian day the rows were dated from when this body was written to the database.
+        public final int julianDay;
+
+        Entry(String etag, String lastModified, String bodyHash, int julianDay) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.bodyHash = bodyHash;
+            this.julianDay = julianDay;
+        }
+    }
+
+    public ForecastResponseCache(Context context) {
+        this(new File(context.getCacheDir(), CACHE_DIR));
+    }
+
+    ForecastResponseCache(File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * @return the cached entry for the url, or null if there is none (or only part of one).
+     */
+    public Entry get(String url) {
+        String key = keyFor(url);
+        File meta = new File(mCacheDir, key + META_SUFFIX);
+        File body = new File(mCacheDir, key + BODY_SUFFIX);
+        if (!meta.exists() || !body.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            if (in.readInt() != META_VERSION) {
+                return null;
+            }
+            String etag = emptyToNull(in.readUTF());
+            String lastModified = emptyToNull(in.readUTF());
+            String bodyHash = in.readUTF();
+            int julianDay = in.readInt();
+            return new Entry(etag, lastModified, bodyHash, julianDay);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable cache entry for " + url, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Make the request conditional on the cached entry, if there is one.
+     */
+    public void addValidators(HttpURLConnection connection, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        if (entry.etag != null) {
+            connection.setRequestProperty("If-None-Match", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+    }
+
+    /**
+     * Wrap a response body so that it is hashed and written to a temporary file as it is read.
+     * The caller must either {@link #put} or {@link Recorder#discard} the recorder.
+     */
+    public Recorder record(String url, InputStream in) throws IOException {
+        if (!mCacheDir.exists() && !mCacheDir.mkdirs()) {
+            throw new IOException("Unable to create " + mCacheDir);
+        }
+        return new Recorder(in, new File(mCacheDir, keyFor(url) + BODY_SUFFIX + TEMP_SUFFIX));
+    }
+
+    /**
+     * Store the recorded body along with the validators the server sent with it.
+     */
+    public void put(String url, Recorder recorder, String etag, String lastModified,
+                    int julianDay) {
+        String key = keyFor(url);
+        try {
+            recorder.close();
+            File body = new File(mCacheDir, key + BODY_SUFFIX);
+            if (!recorder.mFile.renameTo(body)) {
+                throw new IOException("Unable to rename " + recorder.mFile);
+            }
+            writeMeta(key, new Entry(etag, lastModified, recorder.getHash(), julianDay));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to cache response for " + url, e);
+            remove(url);
+        }
+    }
+
+    /**
+     * Record that the cached body has been applied again, dated from the given Julian day.
+     */
+    public void markApplied(String url, Entry entry, int julianDay) {
+        try {
+            writeMeta(keyFor(url),
+                    new Entry(entry.etag, entry.lastModified, entry.bodyHash, julianDay));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to update cache entry for " + url, e);
+            remove(url);
+        }
+    }
+
+    /**
+     * @return the cached body for the url, or null if it is not cached.
+     */
+    public InputStream openBody(String url) {
+        try {
+            return new BufferedInputStream(
+                    new FileInputStream(new File(mCacheDir, keyFor(url) + BODY_SUFFIX)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void remove(String url) {
+        String key = keyFor(url);
+        new File(mCacheDir, key + META_SUFFIX).delete();
+        new File(mCacheDir, key + BODY_SUFFIX).delete();
+    }
+
+    private void writeMeta(String key, Entry entry) throws IOException {
+        File meta = new File(mCacheDir, key + META_SUFFIX);
+        File temp = new File(mCacheDir, key + META_SUFFIX + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(META_VERSION);
+            out.writeUTF(entry.etag == null ? "" : entry.etag);
+            out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+            out.writeUTF(entry.bodyHash);
+            out.writeInt(entry.julianDay);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(meta)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp);
+        }
+    }
+
+    private static String keyFor(String url) {
+        return Hashes.sha1Hex(url);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing useful to do here.
+            }
+        }
+    }
+
+    /**
+     * Passes the response body through to the parser while hashing it and copying it to disk.
+     */
+    public static final class Recorder extends FilterInputStream {
+        private final MessageDigest mDigest = Hashes.newSha1();
+        private final File mFile;
+        private final OutputStream mOut;
+        private String mHash;
+        private boolean mClosed;
+        private boolean mDiscarded;
+
+        Recorder(InputStream in, File file) throws IOException {
+            super(in);
+            mFile = file;
+            mOut = new BufferedOutputStream(new FileOutputStream(file));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mDigest.update((byte) b);
+                mOut.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mDigest.update(buffer, offset, read);
+                mOut.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes still have to be hashed and recorded.
+            long skipped = 0;
+            while (skipped < count && read() != -1) {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (!mDiscarded) {
+                    // The parser stops at the end of the JSON object; read whatever follows so
+                    // the hash covers the whole body no matter how the bytes were chunked.
+                    byte[] buffer = new byte[512];
+                    while (read(buffer, 0, buffer.length) != -1) {
+                        // keep reading
+                    }
+                }
+            } finally {
+                try {
+                    super.close();
+                } finally {
+                    mOut.close();
+                }
+            }
+        }
+
+        /**
+         * @return the hash of the whole body.  Only call this once the recorder has been closed.
+         */
+        public String getHash() {
+            if (mHash == null) {
+                mHash = Hashes.toHex(mDigest.digest());
+            }
+            return mHash;
+        }
+
+        public void discard() {
+            mDiscarded = true;
+            closeQuietly(this);
+            mFile.delete();
+        }
+    }
+}
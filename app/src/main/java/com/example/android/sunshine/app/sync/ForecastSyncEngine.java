@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Build;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.TodayForecastCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter.ForecastCollector;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes the forecast for a set of locations in one go.
+ *
+ * Downloads and parsing run concurrently on a fixed size pool, with a separate cap on the number
+ * of requests in flight to any one host.  Parsed forecasts are written back on the calling thread
+ * in batches, each batch in a single database transaction through
+ * {@link com.example.android.sunshine.app.data.WeatherProvider#applyBatch}.  A location's old
+ * days are trimmed in the same batch its new ones are written in, so observers of that location
+ * are notified once.
+ */
+public class ForecastSyncEngine {
+    private static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    static final int DEFAULT_MAX_REQUESTS = 4;
+    static final int DEFAULT_MAX_REQUESTS_PER_HOST = 2;
+    static final int DEFAULT_BATCH_SIZE = 10;
+
+    private final Context mContext;
+    private final ForecastResponseCache mResponseCache;
+    private final int mMaxRequests;
+    private final int mMaxRequestsPerHost;
+    private final int mBatchSize;
+    private final Map<String, Semaphore> mHostPermits = new HashMap<String, Semaphore>();
+
+    /**
+     * A location to refresh and the query that fetches its forecast.
+     */
+    public static final class Request {
+        final String locationSetting;
+        final Uri uri;
+
+        public Request(String locationSetting, Uri uri) {
+            this.locationSetting = locationSetting;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * What happened to one location.
+     */
+    public static final class Result {
+        public final String locationSetting;
+        public int outcome = SunshineSyncAdapter.FORECAST_FAILED;
+        @SunshineSyncAdapter.LocationStatus
+        public int status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        public int rowCount;
+
+        // Only used between fetching and committing.
+        final Request request;
+        ForecastResponseCache.Entry cached;
+        ForecastCollector collector;
+        ForecastResponseCache.Recorder recorder;
+        String etag;
+        String lastModified;
+
+        Result(Request request) {
+            this.request = request;
+            this.locationSetting = request.locationSetting;
+        }
+    }
+
+    public ForecastSyncEngine(Context context, ForecastResponseCache responseCache) {
+        this(context, responseCache,
+                DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_BATCH_SIZE);
+    }
+
+    public ForecastSyncEngine(Context context, ForecastResponseCache responseCache,
+                              int maxRequests, int maxRequestsPerHost, int batchSize) {
+        mContext = context;
+        mResponseCache = responseCache;
+        mMaxRequests = maxRequests;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Refresh every requested location.  Blocks until all of them have been fetched and
+     * committed, so this must not be called on the main thread.
+     *
+     * @return one result per request, in the same order as the requests
+     */
+    public List<Result> sync(List<Request> requests) {
+        List<Result> results = new ArrayList<Result>(requests.size());
+        if (requests.isEmpty()) {
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(mMaxRequests, requests.size()), new SyncThreadFactory());
+        CompletionService<Result> completionService =
+                new ExecutorCompletionService<Result>(executor);
+        try {
+            for (final Request request : requests) {
+                final Result result = new Result(request);
+                results.add(result);
+                completionService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            fetch(result);
+                        } catch (RuntimeException e) {
+                            // A response we didn't expect fails its own location, not the sync.
+                            Log.e(LOG_TAG, "Error fetching " + result.locationSetting, e);
+                            result.collector = null;
+                            result.outcome = SunshineSyncAdapter.FORECAST_FAILED;
+                            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+                        }
+                    }
+                }, result);
+            }
+
+            // Commit whatever has been fetched in batches, as the downloads finish.
+            ArrayList<Result> batch = new ArrayList<Result>(mBatchSize);
+            for (int i = 0; i < requests.size(); i++) {
+                Result result;
+                try {
+                    result = completionService.take().get();
+                } catch (ExecutionException e) {
+                    // Only an Error gets past the task; its result stays failed.
+                    Log.e(LOG_TAG, "Error fetching a location", e.getCause());
+                    continue;
+                }
+                if (result.collector != null) {
+                    batch.add(result);
+                    if (batch.size() >= mBatchSize) {
+                        commit(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync interrupted", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            for (Result result : results) {
+                if (result.recorder != null) {
+                    result.recorder.discard();
+                    result.recorder = null;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Download and parse one location's forecast.  Runs on the pool.
+     */
+    private void fetch(Result result) {
+        String cacheKey = result.request.uri.toString();
+        ForecastResponseCache.Entry cached = mResponseCache.get(cacheKey);
+        HttpURLConnection urlConnection = null;
+        Semaphore hostPermits = null;
+
+        try {
+            URL url = new URL(cacheKey);
+            hostPermits = getHostPermits(url.getHost());
+            hostPermits.acquire();
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            mResponseCache.addValidators(urlConnection, cached);
+            urlConnection.connect();
+
+            ForecastCollector collector = new ForecastCollector();
+
+            if (cached != null
+                    && urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (isApplied(cached, collector, result.locationSetting)) {
+                    result.outcome = SunshineSyncAdapter.FORECAST_NOT_MODIFIED;
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    return;
+                }
+
+                // The rows we stored from this response are gone, or were dated from another
+                // day.  The server says our copy is still good, so apply it again.
+                InputStream cachedBody = mResponseCache.openBody(cacheKey);
+                if (cachedBody == null) {
+                    // Lost the body in the meantime; start over with an unconditional request.
+                    mResponseCache.remove(cacheKey);
+                    urlConnection.disconnect();
+                    urlConnection = null;
+                    hostPermits.release();
+                    hostPermits = null;
+                    fetch(result);
+                    return;
+                }
+                if (accept(result, parseForecast(cachedBody, collector), collector)) {
+                    result.cached = cached;
+                }
+                return;
+            }
+
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                return;
+            }
+
+            ForecastResponseCache.Recorder recorder = mResponseCache.record(cacheKey, inputStream);
+            result.recorder = recorder;
+            int messageCode = parseForecast(recorder, collector);
+            recorder.close();
+            result.etag = urlConnection.getHeaderField("ETag");
+            result.lastModified = urlConnection.getHeaderField("Last-Modified");
+
+            if (messageCode == HttpURLConnection.HTTP_OK && cached != null
+                    && cached.bodyHash.equals(recorder.getHash())
+                    && isApplied(cached, collector, result.locationSetting)) {
+                // Same bytes as last time; keep the fresh validators but don't touch the data.
+                mResponseCache.put(cacheKey, recorder, result.etag, result.lastModified,
+                        cached.julianDay);
+                result.recorder = null;
+                result.outcome = SunshineSyncAdapter.FORECAST_UNCHANGED;
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return;
+            }
+
+            accept(result, messageCode, collector);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + result.locationSetting, e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (hostPermits != null) {
+                hostPermits.release();
+            }
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Keep the parsed forecast for committing if the response was a good one.
+     */
+    private static boolean accept(Result result, int messageCode, ForecastCollector collector) {
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                result.collector = collector;
+                return true;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                return false;
+            default:
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return false;
+        }
+    }
+
+    /**
+     * Write a batch of parsed forecasts in one transaction, then record them in the response
+     * cache and {@link TodayForecastCache}.
+     */
+    private void commit(List<Result> batch) {
+        ContentResolver resolver = mContext.getContentResolver();
+        Map<String, Long> locationIds;
+        try {
+            locationIds = queryLocationIds(resolver, batch);
+        } catch (SQLException e) {
+            failBatch(batch, e);
+            return;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (Result result : batch) {
+            ForecastCollector collector = result.collector;
+            Long locationId = locationIds.get(result.locationSetting);
+            int locationOperation = -1;
+            if (locationId == null) {
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, collector.cityName);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, result.locationSetting);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, collector.cityLatitude);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, collector.cityLongitude);
+                locationOperation = operations.size();
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValues(locationValues)
+                        .build());
+            }
+
+            if (locationId != null) {
+                // delete old data so we don't build up an endless history
+                operations.add(ContentProviderOperation
+                        .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                        + WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                                new String[]{Long.toString(locationId),
+                                        Long.toString(collector.getYesterday())})
+                        .build());
+            }
+
+            for (ContentValues weatherValues : collector.rows) {
+                ContentProviderOperation.Builder builder = ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues);
+                if (locationId != null) {
+                    builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                } else {
+                    builder.withValueBackReference(
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationOperation);
+                }
+                operations.add(builder.build());
+            }
+        }
+
+        try {
+            resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            // A full disk or a locked database fails this batch; the next one may still fit.
+            failBatch(batch, e);
+            return;
+        }
+
+        for (Result result : batch) {
+            String cacheKey = result.request.uri.toString();
+            int julianDay = result.collector.getJulianStartDay();
+            if (result.recorder != null) {
+                mResponseCache.put(cacheKey, result.recorder, result.etag, result.lastModified,
+                        julianDay);
+                result.recorder = null;
+            } else if (result.cached != null) {
+                mResponseCache.markApplied(cacheKey, result.cached, julianDay);
+            }
+            // The provider has just dropped this location's cached conditions; put them back
+            // so the widgets, Muzei, Wear and the notification don't have to query for them.
+            TodayForecastCache.put(result.locationSetting, result.collector.rows);
+            result.outcome = SunshineSyncAdapter.FORECAST_APPLIED;
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+            result.rowCount = result.collector.rows.size();
+            result.collector = null;
+        }
+    }
+
+    private static void failBatch(List<Result> batch, Exception e) {
+        Log.e(LOG_TAG, "Unable to store " + batch.size() + " forecasts", e);
+        for (Result result : batch) {
+            result.collector = null;
+            result.outcome = SunshineSyncAdapter.FORECAST_FAILED;
+        }
+    }
+
+    private static Map<String, Long> queryLocationIds(ContentResolver resolver, List<Result> batch) {
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " IN (");
+        String[] selectionArgs = new String[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = batch.get(i).locationSetting;
+        }
+        selection.append(')');
+
+        Map<String, Long> locationIds = new HashMap<String, Long>();
+        Cursor cursor = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), selectionArgs, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationIds.put(cursor.getString(1), cursor.getLong(0));
+            }
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    private synchronized Semaphore getHostPermits(String host) {
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(mMaxRequestsPerHost, true);
+            mHostPermits.put(host, permits);
+        }
+        return permits;
+    }
+
+    /**
+     * Decode a forecast response into the collector, closing the stream.  The response is
+     * streamed through JsonReader; devices older than Honeycomb don't have it, so there we read
+     * the whole response into a String and let org.json build the tree.
+     *
+     * @return the message code of the response
+     */
+    static int parseForecast(InputStream inputStream, ForecastCollector collector)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // An empty stream shows up here as an EOFException.
+            return ForecastJsonParser.parse(inputStream, collector);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        try {
+            StringBuilder buffer = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                // But it does make debugging a *lot* easier if you print out the completed
+                // buffer for debugging.
+                buffer.append(line).append('\n');
+            }
+
+            if (buffer.length() == 0) {
+                // Stream was empty.  No point in parsing.
+                throw new EOFException("Empty forecast response");
+            }
+            return ForecastJsonParser.parseDom(buffer.toString(), collector);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return true if the rows from the cached response are in the database and were dated
+     * from the same day the collector would date them from.
+     */
+    private boolean isApplied(ForecastResponseCache.Entry cached, ForecastCollector collector,
+                              String locationSetting) {
+        if (cached.julianDay != collector.getJulianStartDay()) {
+            return false;
+        }
+
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class SyncThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ForecastSync #" + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
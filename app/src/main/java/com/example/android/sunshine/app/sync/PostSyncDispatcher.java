@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells everything that shows the weather outside the app that a sync stored new data.
+ *
+ * {@link #dataUpdated} only notes the location and returns.  Once the window after the first
+ * of them has passed, each registered {@link Consumer} is called once, on the dispatcher's own
+ * thread, with every location updated in the meantime, so syncs that finish close together
+ * (say, while the location is being edited) start each widget service or Muzei once rather
+ * than once a sync.
+ *
+ * The sync framework lets go of its wake lock once the sync returns, which is before the window
+ * has passed, so the dispatcher holds a partial wake lock of its own from the first
+ * {@link #dataUpdated} until the consumers have all been called.  Otherwise the device could
+ * sleep, or the process be reclaimed, with the update still waiting.  Consumers are expected to
+ * finish their work before returning, rather than handing it to a thread of their own.
+ */
+public class PostSyncDispatcher {
+
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    static final long DEFAULT_WINDOW_MILLIS = 2000;
+    // Well past the window and the slowest consumer, in case one of them never returns.
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    /**
+     * Something downstream of the sync.  Plugged in with {@link #register}.
+     */
+    public interface Consumer {
+        /**
+         * Called at most once a window, on the dispatcher's thread.
+         *
+         * @param locationSettings every location updated in the window, once each
+         */
+        void onDataUpdated(Context context, Set<String> locationSettings);
+    }
+
+    /**
+     * A consumer that only shows the preferred location, and so only needs calling when that
+     * was one of the locations updated.
+     */
+    public abstract static class PreferredLocationConsumer implements Consumer {
+        @Override
+        public final void onDataUpdated(Context context, Set<String> locationSettings) {
+            if (locationSettings.contains(Utility.getPreferredLocation(context))) {
+                onPreferredLocationUpdated(context);
+            }
+        }
+
+        protected abstract void onPreferredLocationUpdated(Context context);
+    }
+
+    private static PostSyncDispatcher sInstance;
+
+    private final Context mContext;
+    private final long mWindowMillis;
+    private final ScheduledExecutorService mExecutor;
+    private final PowerManager.WakeLock mWakeLock;
+    private final List<Consumer> mConsumers = new CopyOnWriteArrayList<Consumer>();
+
+    // Guarded by itself, as are the counters below.
+    private final Set<String> mPending = new LinkedHashSet<String>();
+    private boolean mDispatchScheduled;
+
+    private int mEventCount;
+    private int mDispatchCount;
+    private int mConsumerCallCount;
+
+    private final Runnable mDispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * The dispatcher for the whole process, with the widgets, Muzei, Wear and the notification
+     * plugged in.
+     */
+    public static synchronized PostSyncDispatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PostSyncDispatcher(context.getApplicationContext(),
+                    DEFAULT_WINDOW_MILLIS);
+            SunshineSyncAdapter.registerConsumers(sInstance);
+        }
+        return sInstance;
+    }
+
+    PostSyncDispatcher(Context context, long windowMillis) {
+        mContext = context;
+        mWindowMillis = windowMillis;
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+        // Held once at most, however many windows come and go while it is.
+        mWakeLock.setReferenceCounted(false);
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PostSyncDispatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void register(Consumer consumer) {
+        mConsumers.add(consumer);
+    }
+
+    public void unregister(Consumer consumer) {
+        mConsumers.remove(consumer);
+    }
+
+    /**
+     * Note that a sync stored new data for locationSetting.  The consumers hear about it once
+     * the window has passed.
+     */
+    public void dataUpdated(String locationSetting) {
+        synchronized (mPending) {
+            mEventCount++;
+            mPending.add(locationSetting);
+            if (!mDispatchScheduled) {
+                mDispatchScheduled = true;
+                mWakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+                mExecutor.schedule(mDispatchTask, mWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Call the consumers now, on the calling thread, with everything noted so far, rather than
+     * waiting for the window to pass.
+     *
+     * @return the number of locations dispatched
+     */
+    public int dispatch() {
+        Set<String> locationSettings;
+        synchronized (mPending) {
+            locationSettings = Collections.unmodifiableSet(new LinkedHashSet<String>(mPending));
+            mPending.clear();
+            mDispatchScheduled = false;
+            if (locationSettings.isEmpty()) {
+                releaseWakeLock();
+                return 0;
+            }
+            mDispatchCount++;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (Consumer consumer : mConsumers) {
+            try {
+                consumer.onDataUpdated(mContext, locationSettings);
+            } catch (RuntimeException e) {
+                // One broken consumer shouldn't keep the rest from hearing about it.
+                Log.e(LOG_TAG, "Error dispatching to " + consumer, e);
+            }
+            synchronized (mPending) {
+                mConsumerCallCount++;
+            }
+        }
+        synchronized (mPending) {
+            releaseWakeLock();
+        }
+        Log.d(LOG_TAG, "Dispatched " + locationSettings + " in "
+                + (SystemClock.elapsedRealtime() - start) + " ms. " + this);
+        return locationSettings.size();
+    }
+
+    /**
+     * @return whether the wake lock is held, which it is while anything is waiting to go out
+     */
+    boolean isHoldingWakeLock() {
+        synchronized (mPending) {
+            return mWakeLock.isHeld();
+        }
+    }
+
+    /**
+     * @return how many times {@link #dataUpdated} was called
+     */
+    public int getEventCount() {
+        synchronized (mPending) {
+            return mEventCount;
+        }
+    }
+
+    /**
+     * @return how many windows the consumers were called for
+     */
+    public int getDispatchCount() {
+        synchronized (mPending) {
+            return mDispatchCount;
+        }
+    }
+
+    public int getConsumerCallCount() {
+        synchronized (mPending) {
+            return mConsumerCallCount;
+        }
+    }
+
+    // Called with mPending held.  Kept if another window started while the consumers ran.
+    private void releaseWakeLock() {
+        if (!mDispatchScheduled && mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mPending) {
+            return "pending " + mPending.size() + ", events " + mEventCount + ", dispatched "
+                    + mDispatchCount + ", consumer calls " + mConsumerCallCount;
+        }
+    }
+}
@@ -8,7 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -18,7 +17,6 @@ import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -29,44 +27,40 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ArtRepository;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TodayForecastCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
+import com.example.android.sunshine.app.wear.ForecastBlob;
+import com.example.android.sunshine.app.wear.WearPublisher;
 import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
-    private static final String TEMP_ICON_KEY = "com.example.android.sunshine.key.icon";
+    private static final String WEATHER_ID_KEY = "com.example.android.sunshine.key.weather_id";
+    private static final String FORECAST_KEY = "com.example.android.sunshine.key.forecast";
+    // A week ahead, so the watch can move on to the next day while the phone is away.
+    private static final int WEAR_FORECAST_DAYS = 7;
     private static final String TEMP_MIN_KEY = "com.example.android.sunshine.key.temp.min";
     private static final String TEMP_MAX_KEY = "com.example.android.sunshine.key.temp.max";
 
-    public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+    public static final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
@@ -75,25 +69,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // The most locations refreshed by a sync, the preferred one included.
+    static final int MAX_TRACKED_LOCATIONS = 20;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-    private GoogleApiClient mGoogleApiClient;
-    private Bitmap weatherIcon;
-    private double minTemprature;
-    private double maxTemprature;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -104,8 +83,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Outcomes of syncing one location
+    static final int FORECAST_APPLIED = 0;
+    static final int FORECAST_NOT_MODIFIED = 1;
+    static final int FORECAST_UNCHANGED = 2;
+    static final int FORECAST_FAILED = 3;
+
+    private final ForecastResponseCache mResponseCache;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mResponseCache = new ForecastResponseCache(context);
     }
 
     @Override
@@ -116,308 +104,352 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
         String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        ArrayList<ForecastSyncEngine.Request> requests = new ArrayList<ForecastSyncEngine.Request>();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (Utility.isLocationLatLonAvailable(context)) {
+            requests.add(new ForecastSyncEngine.Request(locationQuery, buildForecastUri(null,
+                    String.valueOf(Utility.getLocationLatitude(context)),
+                    String.valueOf(Utility.getLocationLongitude(context)))));
+        } else {
+            requests.add(new ForecastSyncEngine.Request(locationQuery,
+                    buildForecastUri(locationQuery, null, null)));
+        }
+
+        // The other tracked locations are refreshed along with the preferred one, by the
+        // coordinates OWM gave us for them the first time round.  Anything else stored in
+        // LocationEntry, such as a location only ever typed in by mistake, is left alone.
+        List<String> tracked = new ArrayList<String>(getTrackedLocations(context));
+        tracked.remove(locationQuery);
+        StringBuilder selection = new StringBuilder();
+        for (int i = 0; i < tracked.size(); i++) {
+            selection.append(i == 0 ? "" : ",").append('?');
+        }
+        Cursor cursor = tracked.isEmpty() ? null : context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+                        + " IN (" + selection + ")",
+                tracked.toArray(new String[tracked.size()]),
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                requests.add(new ForecastSyncEngine.Request(cursor.getString(0),
+                        buildForecastUri(null, cursor.getString(1), cursor.getString(2))));
+            }
+            cursor.close();
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        syncLocations(requests);
+    }
 
+    /**
+     * Build the OpenWeatherMap query for either a location string or a lat/lon pair.
+     */
+    private static Uri buildForecastUri(String locationQuery, String latitude, String longitude) {
         String format = "json";
         String units = "metric";
         int numDays = 14;
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+        if (locationQuery != null) {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        } else {
+            uriBuilder.appendQueryParameter(LAT_PARAM, latitude)
+                    .appendQueryParameter(LON_PARAM, longitude);
+        }
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+    /**
+     * Refresh every requested location through {@link ForecastSyncEngine}, then let everyone
+     * know, once for the whole sync.  The engine trims each location's old days as it goes.
+     *
+     * Requests are made conditional on the last response applied for the same uri.  When the
+     * server answers 304, or sends back exactly the body we applied last time, nothing is
+     * written for that location.  Locations that did change are handed to the
+     * {@link PostSyncDispatcher}, which lets the widgets, Muzei, Wear and notifications know
+     * shortly afterwards, once for however many syncs finish in the meantime.
+     *
+     * Each location's status is stored under its location setting, for
+     * {@link Utility#getLocationStatus(Context, String)}.  The single status the UI shows
+     * mirrors the preferred location's.
+     *
+     * @return the engine's results, in request order
+     */
+    List<ForecastSyncEngine.Result> syncLocations(List<ForecastSyncEngine.Request> requests) {
+        long start = System.currentTimeMillis();
+        List<ForecastSyncEngine.Result> results =
+                new ForecastSyncEngine(getContext(), mResponseCache).sync(requests);
+
+        int applied = 0;
+        int rowCount = 0;
+        for (ForecastSyncEngine.Result result : results) {
+            if (result.outcome == FORECAST_APPLIED) {
+                applied++;
+                rowCount += result.rowCount;
+            } else if (result.outcome == FORECAST_FAILED) {
+                Log.w(LOG_TAG, "Unable to sync " + result.locationSetting
+                        + ", status " + result.status);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+        }
+
+        if (applied > 0) {
+            PostSyncDispatcher dispatcher = PostSyncDispatcher.getInstance(getContext());
+            for (ForecastSyncEngine.Result result : results) {
+                if (result.outcome == FORECAST_APPLIED) {
+                    dispatcher.dataUpdated(result.locationSetting);
                 }
             }
         }
-        return;
+        Log.d(LOG_TAG, "Sync Complete. " + applied + " of " + results.size() + " locations, "
+                + rowCount + " rows inserted in " + (System.currentTimeMillis() - start) + " ms");
+
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        List<String> tracked = getTrackedLocations(getContext());
+        List<String> updated = updateTrackedLocations(tracked, preferredLocation, results);
+        if (!updated.equals(tracked)) {
+            setTrackedLocations(getContext(), updated);
+        }
+        setLocationStatuses(getContext(), updateLocationStatuses(
+                Utility.getLocationStatuses(getContext()), updated, preferredLocation, results),
+                preferredLocation);
+        return results;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Record each location's status from a sync.  Only the tracked locations and the preferred
+     * one are kept, so a location that was dropped, or never found, doesn't linger.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return the status of each location, keyed by location_setting
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+    static Map<String, Integer> updateLocationStatuses(Map<String, Integer> statuses,
+                                                       List<String> tracked,
+                                                       String preferredLocation,
+                                                       List<ForecastSyncEngine.Result> results) {
+        Map<String, Integer> updated = new HashMap<String, Integer>(statuses);
+        for (ForecastSyncEngine.Result result : results) {
+            updated.put(result.locationSetting, result.status);
+        }
+        Iterator<String> locations = updated.keySet().iterator();
+        while (locations.hasNext()) {
+            String locationSetting = locations.next();
+            if (!locationSetting.equals(preferredLocation) && !tracked.contains(locationSetting)) {
+                locations.remove();
             }
+        }
+        return updated;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * Work out which locations to keep refreshing after a sync.  The preferred location joins
+     * them, at the front, once OWM has a forecast for it.  A location OWM says doesn't exist is
+     * dropped.  Past {@link #MAX_TRACKED_LOCATIONS}, those the user picked longest ago go.
+     *
+     * @return the new tracked locations, most recently preferred first
+     */
+    static List<String> updateTrackedLocations(List<String> tracked, String preferredLocation,
+                                               List<ForecastSyncEngine.Result> results) {
+        List<String> updated = new ArrayList<String>(tracked);
+        for (ForecastSyncEngine.Result result : results) {
+            if (result.status == LOCATION_STATUS_INVALID) {
+                updated.remove(result.locationSetting);
+            } else if (result.status == LOCATION_STATUS_OK
+                    && result.locationSetting.equals(preferredLocation)) {
+                updated.remove(result.locationSetting);
+                updated.add(0, result.locationSetting);
+            }
+        }
+        while (updated.size() > MAX_TRACKED_LOCATIONS) {
+            updated.remove(updated.size() - 1);
+        }
+        return updated;
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * @return the locations refreshed by every sync, most recently preferred first
+     */
+    static List<String> getTrackedLocations(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String json = sp.getString(c.getString(R.string.pref_tracked_locations_key), null);
+        List<String> tracked = new ArrayList<String>();
+        if (json != null) {
+            try {
+                JSONArray array = new JSONArray(json);
+                for (int i = 0; i < array.length(); i++) {
+                    tracked.add(array.getString(i));
+                }
+            } catch (JSONException e) {
+                // Start over; the preferred location is tracked again on its next sync.
+                Log.e(LOG_TAG, "Unreadable tracked locations: " + json, e);
+                tracked.clear();
+            }
+        }
+        return tracked;
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    private static void setTrackedLocations(Context c, List<String> tracked) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor spe = sp.edit();
+        spe.putString(c.getString(R.string.pref_tracked_locations_key),
+                new JSONArray(tracked).toString());
+        spe.apply();
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * Download the forecast at builtUri and store it for locationSetting.
+     *
+     * @return one of the FORECAST_* outcomes
+     */
+    int syncForecast(Uri builtUri, String locationSetting) {
+        List<ForecastSyncEngine.Result> results = syncLocations(Collections.singletonList(
+                new ForecastSyncEngine.Request(locationSetting, builtUri)));
+        return results.get(0).outcome;
+    }
 
+    /**
+     * Turns each decoded day into the ContentValues handed to the provider.  The location key
+     * is filled in by {@link ForecastSyncEngine} once the batch is committed, since OWM does not
+     * promise to send "city" ahead of "list".
+     */
+    static class ForecastCollector implements ForecastJsonParser.Listener {
+        final ArrayList<ContentValues> rows = new ArrayList<ContentValues>(14);
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        private final int mJulianStartDay;
+        private final Time mDayTime;
+
+        ForecastCollector() {
             Time dayTime = new Time();
             dayTime.setToNow();
 
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
             // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
+            mDayTime = new Time();
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                notifyWear();
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        int getJulianStartDay() {
+            return mJulianStartDay;
+        }
+
+        long getYesterday() {
+            return mDayTime.setJulianDay(mJulianStartDay - 1);
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            cityLatitude = lat;
+            cityLongitude = lon;
+        }
+
+        @Override
+        public void onDay(int index, ForecastJsonParser.ForecastDay day) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = mDayTime.setJulianDay(mJulianStartDay + index);
+
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+            rows.add(weatherValues);
         }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    /**
+     * Plug the widgets, Muzei, Wear and the notification in to dispatcher.  They only show the
+     * preferred location, so they're left alone when only other locations changed.
+     */
+    static void registerConsumers(PostSyncDispatcher dispatcher) {
+        dispatcher.register(new PostSyncDispatcher.PreferredLocationConsumer() {
+            @Override
+            protected void onPreferredLocationUpdated(Context context) {
+                updateWidgets(context);
+            }
+        });
+        dispatcher.register(new PostSyncDispatcher.PreferredLocationConsumer() {
+            @Override
+            protected void onPreferredLocationUpdated(Context context) {
+                updateMuzei(context);
+            }
+        });
+        dispatcher.register(new PostSyncDispatcher.PreferredLocationConsumer() {
+            @Override
+            protected void onPreferredLocationUpdated(Context context) {
+                notifyWeather(context);
+            }
+        });
+        // Last, since it may wait on the data layer.
+        dispatcher.register(new PostSyncDispatcher.PreferredLocationConsumer() {
+            @Override
+            protected void onPreferredLocationUpdated(Context context) {
+                notifyWear(context);
+            }
+        });
+    }
+
+    private static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
+    private static void notifyWeather(Context context) {
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
@@ -433,46 +465,24 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                // the sync has just cached today's forecast, so this doesn't touch the database
+                TodayForecastCache.Snapshot today = TodayForecastCache.get(context, locationQuery);
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.high;
+                    double low = today.low;
+                    String desc = today.shortDesc;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+
+                    // Retrieve the large icon.  This never waits on the art server: until the
+                    // art pack's art has been fetched, the built-in art is shown
+                    ArtRepository artRepository = ArtRepository.getInstance(context);
+                    Bitmap largeIcon = artRepository.getArt(weatherId,
+                            getLargeIconWidth(resources), getLargeIconHeight(resources));
+                    Log.d(LOG_TAG, "Notification art: " + artRepository);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -484,7 +494,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
                     NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
+                            new NotificationCompat.Builder(context)
                                     .setColor(resources.getColor(R.color.primary_light))
                                     .setSmallIcon(iconId)
                                     .setLargeIcon(largeIcon)
@@ -509,7 +519,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     mBuilder.setContentIntent(resultPendingIntent);
 
                     NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
                     // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
                     mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
 
@@ -518,59 +528,37 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * Fetch the chosen art pack's art for the notification in the background, so it's there by
+     * the time the notification is shown.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    public static void prefetchNotificationArt(Context context) {
+        if (Utility.usingLocalGraphics(context)) {
+            return;
         }
+        Resources resources = context.getResources();
+        ArtRepository.getInstance(context).prefetch(Utility.getPreferredArtPack(context),
+                getLargeIconWidth(resources), getLargeIconHeight(resources));
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    // On Honeycomb and higher devices, we can retrieve the size of the large icon
+    // Prior to that, we use a fixed size
+    @SuppressLint("InlinedApi")
+    private static int getLargeIconWidth(Resources resources) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    @SuppressLint("InlinedApi")
+    private static int getLargeIconHeight(Resources resources) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
     }
 
     /**
@@ -665,101 +653,58 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets each location's status into shared preference, along with the preferred location's
+     * in the single status the UI listens for.  This function should not be called from the UI
+     * thread because it uses commit to write to the shared preferences.
      * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
+     * @param statuses The IntDef value for each location, keyed by location_setting
+     * @param preferredLocation The location whose status is mirrored, if it has one
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
+    static private void setLocationStatuses(Context c, Map<String, Integer> statuses,
+                                            String preferredLocation){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        spe.putString(c.getString(R.string.pref_location_statuses_key),
+                new JSONObject(statuses).toString());
+        Integer locationStatus = statuses.get(preferredLocation);
+        if (locationStatus != null) {
+            spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        }
         spe.commit();
     }
 
-    private void notifyWear() {
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery,
-                System.currentTimeMillis());
-        Cursor cursor = getContext().getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            minTemprature = cursor.getDouble(INDEX_MIN_TEMP);
-            maxTemprature = cursor.getDouble(INDEX_MAX_TEMP);
-
-            Resources resources = getContext().getResources();
-            int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-            String artUrl = Utility.getArtUrlForWeatherCondition(getContext(), weatherId);
+    private static void notifyWear(Context context) {
+        String locationQuery = Utility.getPreferredLocation(context);
 
-            int largeIconSize = resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-            try {
-                weatherIcon = Glide.with(getContext())
-                        .load(artUrl)
-                        .asBitmap()
-                        .error(artResourceId)
-                        .fitCenter()
-                        .into(largeIconSize, largeIconSize).get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-                weatherIcon = BitmapFactory.decodeResource(resources, artResourceId);
-            }
+        TodayForecastCache.Snapshot today = TodayForecastCache.get(context, locationQuery);
+        if (today == null) {
+            // Nothing stored for today yet, so there's nothing to show on the watch either.
+            return;
         }
 
-        Asset asset = createAssetFromBitmap(weatherIcon);
-
-        final String TAG = "Wear Date Layer";
-        mGoogleApiClient = new GoogleApiClient.Builder(getContext())
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(Bundle connectionHint) {
-                        Log.d(TAG, "onConnected: " + connectionHint);
-                    }
-
-                    @Override
-                    public void onConnectionSuspended(int cause) {
-                        Log.d(TAG, "onConnectionSuspended: " + cause);
-                    }
-                })
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(ConnectionResult result) {
-                        Log.d(TAG, "onConnectionFailed: " + result);
-                    }
-                })
-                // Request access only to the Wearable API
-                .addApi(Wearable.API)
-                .build();
-
-        mGoogleApiClient.connect();
-
         PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/weather");
-        putDataMapReq.getDataMap().putDouble(TEMP_MIN_KEY, minTemprature);
-        putDataMapReq.getDataMap().putDouble(TEMP_MAX_KEY, maxTemprature);
+        putDataMapReq.getDataMap().putDouble(TEMP_MIN_KEY, today.low);
+        putDataMapReq.getDataMap().putDouble(TEMP_MAX_KEY, today.high);
         //for test purpose so i will get update record each time :-)
         //putDataMapReq.getDataMap().putLong("timestamp", Calendar.getInstance().getTimeInMillis());
-        putDataMapReq.getDataMap().putAsset(TEMP_ICON_KEY, asset);
-        PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
-        Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq).setResultCallback(
-                new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        if (!dataItemResult.getStatus().isSuccess()) {
-                            Log.e(TAG, "buildWatchOnlyNotification(): Failed to set the data, "
-                                    + "status: " + dataItemResult.getStatus().getStatusCode());
-                        }
-                        mGoogleApiClient.disconnect();
-                    }
-                }
-        );
-    }
-
-    private static Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
+        // The watch carries its own art, so the condition is all it needs to pick it.
+        putDataMapReq.getDataMap().putInt(WEATHER_ID_KEY, today.weatherId);
+
+        Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationQuery, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(forecastUri,
+                ForecastBlob.FORECAST_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor != null) {
+            putDataMapReq.getDataMap().putByteArray(FORECAST_KEY,
+                    ForecastBlob.encode(cursor, WEAR_FORECAST_DAYS));
+            cursor.close();
+        }
+        // The dispatcher has coalesced already, so send now, while its wake lock is held,
+        // rather than after another window with nothing holding the device awake.
+        WearPublisher publisher = WearPublisher.getInstance(context);
+        publisher.publish(putDataMapReq);
+        publisher.flush();
     }
 
 }
\ No newline at end of file
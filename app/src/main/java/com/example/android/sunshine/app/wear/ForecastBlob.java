@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.database.Cursor;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Several days of forecast packed into a few bytes for the watch.
+ *
+ * Version 1, big-endian:
+ *
+ *   byte   version
+ *   byte   number of days
+ *   then for each day, 13 bytes:
+ *   int    Julian day, local to the phone
+ *   short  OpenWeatherMap condition id
+ *   short  minimum temperature, tenths of a degree Celsius
+ *   short  maximum temperature, tenths of a degree Celsius
+ *   byte   humidity, percent
+ *   short  wind speed, tenths
+ *
+ * The watch has its own decoder in the sunshinewatch module; keep the two in step, and bump
+ * the version for any change to the layout.
+ */
+public final class ForecastBlob {
+
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 2;
+    static final int DAY_SIZE = 13;
+    static final int MAX_DAYS = 255;
+
+    /**
+     * What {@link #encode} needs from each row, in this order.
+     */
+    public static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_WIND_SPEED
+    };
+    // these indices must match the projection
+    static final int COL_DATE = 0;
+    static final int COL_WEATHER_ID = 1;
+    static final int COL_MIN_TEMP = 2;
+    static final int COL_MAX_TEMP = 3;
+    static final int COL_HUMIDITY = 4;
+    static final int COL_WIND_SPEED = 5;
+
+    /**
+     * A decoded blob, one array per field, indexed by day.
+     */
+    public static final class Days {
+        public final int count;
+        public final int[] julianDays;
+        public final int[] weatherIds;
+        public final float[] minTemps;
+        public final float[] maxTemps;
+        public final int[] humidities;
+        public final float[] windSpeeds;
+
+        Days(int count) {
+            this.count = count;
+            julianDays = new int[count];
+            weatherIds = new int[count];
+            minTemps = new float[count];
+            maxTemps = new float[count];
+            humidities = new int[count];
+            windSpeeds = new float[count];
+        }
+    }
+
+    private ForecastBlob() {
+    }
+
+    /**
+     * Pack up to maxDays rows of a cursor over {@link #FORECAST_COLUMNS}, from its current
+     * position on.
+     */
+    public static byte[] encode(Cursor cursor, int maxDays) {
+        int count = Math.min(Math.min(maxDays, MAX_DAYS), cursor.getCount());
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * DAY_SIZE);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) count);
+
+        Time time = new Time();
+        int written = 0;
+        while (written < count && cursor.moveToNext()) {
+            long date = cursor.getLong(COL_DATE);
+            time.set(date);
+            buffer.putInt(Time.getJulianDay(date, time.gmtoff));
+            buffer.putShort(toShort(cursor.getInt(COL_WEATHER_ID)));
+            buffer.putShort(toTenths(cursor.getDouble(COL_MIN_TEMP)));
+            buffer.putShort(toTenths(cursor.getDouble(COL_MAX_TEMP)));
+            buffer.put((byte) Math.max(0, Math.min(100, Math.round(cursor.getDouble(COL_HUMIDITY)))));
+            buffer.putShort(toTenths(cursor.getDouble(COL_WIND_SPEED)));
+            written++;
+        }
+        if (written < count) {
+            // The cursor ran out early; say so in the header rather than send zeroed days.
+            buffer.put(1, (byte) written);
+        }
+        byte[] blob = new byte[HEADER_SIZE + written * DAY_SIZE];
+        System.arraycopy(buffer.array(), 0, blob, 0, blob.length);
+        return blob;
+    }
+
+    /**
+     * @return the days in blob, or null if it isn't a version this understands
+     */
+    public static Days decode(byte[] blob) {
+        if (blob == null || blob.length < HEADER_SIZE || blob[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(blob);
+        buffer.get();
+        Days days = new Days(buffer.get() & 0xff);
+        try {
+            for (int i = 0; i < days.count; i++) {
+                days.julianDays[i] = buffer.getInt();
+                days.weatherIds[i] = buffer.getShort();
+                days.minTemps[i] = buffer.getShort() / 10f;
+                days.maxTemps[i] = buffer.getShort() / 10f;
+                days.humidities[i] = buffer.get();
+                days.windSpeeds[i] = buffer.getShort() / 10f;
+            }
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+        return days;
+    }
+
+    private static short toTenths(double value) {
+        return toShort(Math.round(value * 10));
+    }
+
+    private static short toShort(long value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Hashes;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes data items to the watch over one long-lived connection.
+ *
+ * {@link #publish} only queues the item and returns.  Items are sent together once the
+ * coalescing window after the first of them has passed; if another item for the same path
+ * comes in before then it replaces the queued one, so the watch only ever gets the latest.
+ * Sending happens on the publisher's own thread, which connects with blockingConnect the first
+ * time and then keeps the connection for the life of the process, and waits for each put.
+ *
+ * The watch already has whatever was last put for a path, so an item whose contents are the
+ * same as the last one sent for its path is dropped rather than queued.  What was last sent is
+ * kept as a hash of the data map in a preferences file, so this holds across processes too.
+ */
+public class WearPublisher {
+
+    private static final String LOG_TAG = WearPublisher.class.getSimpleName();
+
+    static final long DEFAULT_COALESCE_WINDOW_MILLIS = 2000;
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    private static final long PUT_TIMEOUT_SECONDS = 30;
+
+    private static final String PREFS_NAME = "wear_publisher";
+    private static final String PREF_FINGERPRINT_PREFIX = "fingerprint:";
+
+    /**
+     * Where the items go.  The Wearable data layer, except in tests.
+     */
+    interface Transport {
+        /**
+         * Connect if not connected already.  Blocks.
+         *
+         * @return false if there's no connection to send on
+         */
+        boolean connect();
+
+        /**
+         * Send one item and wait for the data layer to take it.
+         *
+         * @return false if it wasn't taken
+         */
+        boolean putDataItem(PutDataRequest request);
+    }
+
+    private static final class Pending {
+        final PutDataMapRequest request;
+        final String fingerprint;
+        final long queuedAt;
+
+        Pending(PutDataMapRequest request, String fingerprint, long queuedAt) {
+            this.request = request;
+            this.fingerprint = fingerprint;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private static WearPublisher sInstance;
+
+    private final Transport mTransport;
+    private final long mCoalesceWindowMillis;
+    private final SharedPreferences mPrefs;
+    private final ScheduledExecutorService mExecutor;
+
+    // Guarded by itself, as are the counters below.
+    private final Map<String, Pending> mPending = new LinkedHashMap<String, Pending>();
+    private boolean mFlushScheduled;
+
+    private int mMaxQueueDepth;
+    private int mCoalescedCount;
+    private int mSuppressedCount;
+    private int mPublishedCount;
+    private int mFailedCount;
+    private long mLastLatencyMillis;
+    private long mTotalLatencyMillis;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * The publisher for the whole process, connected to the Wearable data layer.
+     */
+    public static synchronized WearPublisher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearPublisher(new WearableTransport(context),
+                    DEFAULT_COALESCE_WINDOW_MILLIS,
+                    context.getApplicationContext().getSharedPreferences(
+                            PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    WearPublisher(Transport transport, long coalesceWindowMillis, SharedPreferences prefs) {
+        mTransport = transport;
+        mCoalesceWindowMillis = coalesceWindowMillis;
+        mPrefs = prefs;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "WearPublisher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queue an item for the watch, replacing any item for the same path that hasn't been sent.
+     * If the watch already has these contents for the path, the item is dropped instead, along
+     * with anything still queued for the path.
+     */
+    public void publish(PutDataMapRequest request) {
+        String path = request.getUri().getPath();
+        String fingerprint = fingerprint(request);
+        synchronized (mPending) {
+            if (fingerprint.equals(mPrefs.getString(PREF_FINGERPRINT_PREFIX + path, null))) {
+                // Whatever was queued since is superseded by what the watch has already.
+                mPending.remove(path);
+                mSuppressedCount++;
+                return;
+            }
+            Pending replaced = mPending.put(path,
+                    new Pending(request, fingerprint, SystemClock.elapsedRealtime()));
+            if (replaced != null) {
+                mCoalescedCount++;
+            }
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mPending.size());
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mExecutor.schedule(mFlushTask, mCoalesceWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Send everything queued now, on the calling thread, rather than waiting for the window to
+     * pass.  Blocks until the data layer has taken every item, so not on the main thread.
+     *
+     * @return the number of items sent
+     */
+    public int flush() {
+        List<Pending> batch;
+        synchronized (mPending) {
+            batch = new ArrayList<Pending>(mPending.values());
+            mPending.clear();
+            mFlushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        int sent = 0;
+        // One send at a time, whether from the window or a caller.
+        synchronized (mTransport) {
+            boolean connected = mTransport.connect();
+            for (Pending pending : batch) {
+                boolean success = connected
+                        && mTransport.putDataItem(pending.request.asPutDataRequest());
+                long latency = SystemClock.elapsedRealtime() - pending.queuedAt;
+                synchronized (mPending) {
+                    if (success) {
+                        mPrefs.edit()
+                                .putString(PREF_FINGERPRINT_PREFIX
+                                        + pending.request.getUri().getPath(), pending.fingerprint)
+                                .apply();
+                        mPublishedCount++;
+                        mLastLatencyMillis = latency;
+                        mTotalLatencyMillis += latency;
+                    } else {
+                        // The next sync publishes again; there's no point holding on to this.
+                        mFailedCount++;
+                    }
+                }
+                if (success) {
+                    sent++;
+                }
+            }
+        }
+        Log.d(LOG_TAG, "Published " + sent + " of " + batch.size() + ". " + this);
+        return sent;
+    }
+
+    public int getQueueDepth() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        synchronized (mPending) {
+            return mMaxQueueDepth;
+        }
+    }
+
+    /**
+     * @return how many queued items were replaced by a newer one before being sent
+     */
+    public int getCoalescedCount() {
+        synchronized (mPending) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * @return how many items were dropped because the watch already had their contents
+     */
+    public int getSuppressedCount() {
+        synchronized (mPending) {
+            return mSuppressedCount;
+        }
+    }
+
+    public int getPublishedCount() {
+        synchronized (mPending) {
+            return mPublishedCount;
+        }
+    }
+
+    public int getFailedCount() {
+        synchronized (mPending) {
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * @return time from queueing to the data layer taking the last item sent, in milliseconds
+     */
+    public long getLastLatencyMillis() {
+        synchronized (mPending) {
+            return mLastLatencyMillis;
+        }
+    }
+
+    public long getAverageLatencyMillis() {
+        synchronized (mPending) {
+            return mPublishedCount == 0 ? 0 : mTotalLatencyMillis / mPublishedCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mPending) {
+            return "queued " + mPending.size() + " (max " + mMaxQueueDepth + "), coalesced "
+                    + mCoalescedCount + ", suppressed " + mSuppressedCount + ", published " + mPublishedCount + ", failed "
+                    + mFailedCount + ", latency " + mLastLatencyMillis + " ms (mean "
+                    + getAverageLatencyMillis() + " ms)";
+        }
+    }
+
+    private static String fingerprint(PutDataMapRequest request) {
+        return Hashes.sha1Hex(request.getDataMap().toByteArray());
+    }
+
+    private static class WearableTransport implements Transport {
+        private final GoogleApiClient mGoogleApiClient;
+
+        WearableTransport(Context context) {
+            mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                    // Request access only to the Wearable API
+                    .addApi(Wearable.API)
+                    .build();
+        }
+
+        @Override
+        public boolean connect() {
+            if (mGoogleApiClient.isConnected()) {
+                return true;
+            }
+            ConnectionResult result =
+                    mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!result.isSuccess()) {
+                Log.w(LOG_TAG, "Unable to connect to the Wearable API: " + result);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean putDataItem(PutDataRequest request) {
+            DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                    .await(PUT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!result.getStatus().isSuccess()) {
+                Log.e(LOG_TAG, "Failed to put " + request.getUri() + ", status: "
+                        + result.getStatus().getStatusCode());
+                return false;
+            }
+            return true;
+        }
+    }
+}
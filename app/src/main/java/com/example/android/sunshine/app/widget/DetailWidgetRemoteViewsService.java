@@ -7,19 +7,17 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
-
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
  */
@@ -42,10 +40,16 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
 
+    // Every row's RemoteViews crosses the binder with its own copy of its bitmap, and the
+    // process's binder buffer is only 1MB, so warn well before the rows get near that.
+    static final int BITMAP_BYTES_BUDGET = 512 * 1024;
+
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
             private Cursor data = null;
+            // Scaled art pack bitmaps by condition id; empty when using local graphics.
+            private final SparseArray<Bitmap> art = new SparseArray<Bitmap>();
 
             @Override
             public void onCreate() {
@@ -71,6 +75,55 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         null,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
                 Binder.restoreCallingIdentity(identityToken);
+                loadArt();
+            }
+
+            private void loadArt() {
+                art.clear();
+                if (data == null
+                        || Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this)) {
+                    return;
+                }
+                long start = SystemClock.elapsedRealtime();
+
+                int[] rowWeatherIds = new int[data.getCount()];
+                SparseArray<Boolean> distinct = new SparseArray<Boolean>();
+                for (int i = 0; data.moveToPosition(i); i++) {
+                    rowWeatherIds[i] = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                    distinct.put(rowWeatherIds[i], Boolean.TRUE);
+                }
+                int[] weatherIds = new int[distinct.size()];
+                for (int i = 0; i < weatherIds.length; i++) {
+                    weatherIds[i] = distinct.keyAt(i);
+                }
+
+                WidgetArtCache cache = WidgetArtCache.getInstance();
+                String artPack = Utility.getPreferredArtPack(DetailWidgetRemoteViewsService.this);
+                int size = getResources().getDimensionPixelSize(R.dimen.list_icon);
+                int loaded = cache.prefetch(DetailWidgetRemoteViewsService.this, weatherIds,
+                        artPack, size);
+                for (int weatherId : weatherIds) {
+                    Bitmap bitmap = cache.get(weatherId, artPack, size);
+                    if (bitmap != null) {
+                        art.put(weatherId, bitmap);
+                    }
+                }
+
+                int bitmapBytes = 0;
+                for (int weatherId : rowWeatherIds) {
+                    Bitmap bitmap = art.get(weatherId);
+                    if (bitmap != null) {
+                        bitmapBytes += WidgetArtCache.getByteCount(bitmap);
+                    }
+                }
+                Log.d(LOG_TAG, "Refreshed " + rowWeatherIds.length + " rows with "
+                        + weatherIds.length + " conditions in "
+                        + (SystemClock.elapsedRealtime() - start) + "ms, loaded " + loaded
+                        + " bitmaps, " + bitmapBytes + " bitmap bytes to send");
+                if (bitmapBytes > BITMAP_BYTES_BUDGET) {
+                    Log.w(LOG_TAG, "Widget rows send " + bitmapBytes
+                            + " bitmap bytes, over the budget of " + BITMAP_BYTES_BUDGET);
+                }
             }
 
             @Override
@@ -79,6 +132,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                     data.close();
                     data = null;
                 }
+                art.clear();
             }
 
             @Override
@@ -96,20 +150,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         R.layout.widget_detail_list_item);
                 int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
                 int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
+                // Loaded in onDataSetChanged; falls back to the icon if the art couldn't be.
+                Bitmap weatherArtImage = art.get(weatherId);
                 String description = data.getString(INDEX_WEATHER_DESC);
                 long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
                 String formattedDate = Utility.getFriendlyDayString(
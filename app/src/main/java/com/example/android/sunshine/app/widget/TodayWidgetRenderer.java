@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.annotation.TargetApi;
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.util.SparseIntArray;
+import android.util.TypedValue;
+import android.widget.RemoteViews;
+
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+
+import java.util.Arrays;
+
+/**
+ * Renders every Today widget in one pass.
+ *
+ * Widgets are sorted into the small, default and large layouts by width.  Each layout is built
+ * once and sent to all of its widgets in a single updateAppWidget call, and a widget is left
+ * out if what it would show hasn't changed since it was last rendered.  What each widget last
+ * showed is only remembered in memory: the widget host keeps the views it was sent for as long
+ * as this process lives, and if the process dies everything is rendered again.
+ */
+class TodayWidgetRenderer {
+
+    /**
+     * The widgets to render and where to send them.  The AppWidgetManager, except in tests.
+     */
+    interface Host {
+        int[] getAppWidgetIds();
+
+        /**
+         * @return the widget's options, or null if there aren't any (before Jelly Bean)
+         */
+        Bundle getAppWidgetOptions(int appWidgetId);
+
+        void updateAppWidget(int[] appWidgetIds, RemoteViews views);
+    }
+
+    private static final int[] LAYOUTS = {
+            R.layout.widget_today_small,
+            R.layout.widget_today,
+            R.layout.widget_today_large
+    };
+
+    private final Context mContext;
+    private final Host mHost;
+    private final int mDefaultWidth;
+    private final int mLargeWidth;
+
+    // Widget id to the hash of what it was last sent.
+    private final SparseIntArray mRendered = new SparseIntArray();
+
+    TodayWidgetRenderer(Context context, Host host) {
+        mContext = context;
+        mHost = host;
+        Resources resources = context.getResources();
+        mDefaultWidth = resources.getDimensionPixelSize(R.dimen.widget_today_default_width);
+        mLargeWidth = resources.getDimensionPixelSize(R.dimen.widget_today_large_width);
+    }
+
+    /**
+     * @return how many updateAppWidget calls were made
+     */
+    synchronized int render(int weatherArtResourceId, String description,
+                            String formattedMaxTemperature, String formattedMinTemperature) {
+        int[] appWidgetIds = mHost.getAppWidgetIds();
+
+        // The widgets that need each layout, skipping those that already show it.
+        int[][] buckets = new int[LAYOUTS.length][appWidgetIds.length];
+        int[] bucketSizes = new int[LAYOUTS.length];
+        int[] hashes = new int[LAYOUTS.length];
+        for (int i = 0; i < LAYOUTS.length; i++) {
+            hashes[i] = Arrays.hashCode(new Object[] {LAYOUTS[i], weatherArtResourceId,
+                    description, formattedMaxTemperature, formattedMinTemperature});
+        }
+        for (int appWidgetId : appWidgetIds) {
+            int bucket = getBucket(appWidgetId);
+            if (mRendered.indexOfKey(appWidgetId) >= 0
+                    && mRendered.get(appWidgetId) == hashes[bucket]) {
+                continue;
+            }
+            buckets[bucket][bucketSizes[bucket]++] = appWidgetId;
+        }
+
+        int updates = 0;
+        PendingIntent pendingIntent = null;
+        for (int bucket = 0; bucket < LAYOUTS.length; bucket++) {
+            if (bucketSizes[bucket] == 0) {
+                continue;
+            }
+            if (pendingIntent == null) {
+                // Create an Intent to launch MainActivity
+                Intent launchIntent = new Intent(mContext, MainActivity.class);
+                pendingIntent = PendingIntent.getActivity(mContext, 0, launchIntent, 0);
+            }
+            RemoteViews views = new RemoteViews(mContext.getPackageName(), LAYOUTS[bucket]);
+
+            // Add the data to the RemoteViews
+            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+            // Content Descriptions for RemoteViews were only added in ICS MR1
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+                setRemoteContentDescription(views, description);
+            }
+            views.setTextViewText(R.id.widget_description, description);
+            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
+            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+
+            int[] ids = Arrays.copyOf(buckets[bucket], bucketSizes[bucket]);
+            mHost.updateAppWidget(ids, views);
+            updates++;
+            for (int appWidgetId : ids) {
+                mRendered.put(appWidgetId, hashes[bucket]);
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Forget what deleted widgets were showing.
+     */
+    synchronized void forget(int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            mRendered.delete(appWidgetId);
+        }
+    }
+
+    // Find the correct layout based on the widget's width
+    private int getBucket(int appWidgetId) {
+        int widgetWidth = getWidgetWidth(appWidgetId);
+        if (widgetWidth >= mLargeWidth) {
+            return 2;
+        } else if (widgetWidth >= mDefaultWidth) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private int getWidgetWidth(int appWidgetId) {
+        // For Jelly Bean and higher devices, widgets can be resized - the current size can be
+        // retrieved from the newly added App Widget Options.  Prior to Jelly Bean there are no
+        // options, and widgets were always their default size
+        Bundle options = mHost.getAppWidgetOptions(appWidgetId);
+        if (options != null && options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
+            int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
+            // The width returned is in dp, but we'll convert it to pixels to match the other widths
+            DisplayMetrics displayMetrics = mContext.getResources().getDisplayMetrics();
+            return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, minWidthDp,
+                    displayMetrics);
+        }
+        return mDefaultWidth;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+    private void setRemoteContentDescription(RemoteViews views, String description) {
+        views.setContentDescription(R.id.widget_icon, description);
+    }
+
+    /**
+     * A {@link Host} for the Today widgets on the AppWidgetManager.
+     */
+    static class AppWidgetManagerHost implements Host {
+        private final Context mContext;
+        private final AppWidgetManager mAppWidgetManager;
+
+        AppWidgetManagerHost(Context context) {
+            mContext = context;
+            mAppWidgetManager = AppWidgetManager.getInstance(context);
+        }
+
+        @Override
+        public int[] getAppWidgetIds() {
+            return mAppWidgetManager.getAppWidgetIds(
+                    new ComponentName(mContext, TodayWidgetProvider.class));
+        }
+
+        @Override
+        public Bundle getAppWidgetOptions(int appWidgetId) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                return null;
+            }
+            return getAppWidgetOptionsFromManager(appWidgetId);
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        private Bundle getAppWidgetOptionsFromManager(int appWidgetId) {
+            return mAppWidgetManager.getAppWidgetOptions(appWidgetId);
+        }
+
+        @Override
+        public void updateAppWidget(int[] appWidgetIds, RemoteViews views) {
+            mAppWidgetManager.updateAppWidget(appWidgetIds, views);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Art pack bitmaps for the widgets, already scaled down to the size they're shown at, so a
+ * widget row only has to send the binder a bitmap that size.
+ *
+ * Bitmaps are kept in an LRU cache bounded by bytes and keyed by condition id, art pack and
+ * size, so changing art pack or widget size doesn't hand back the wrong art.  There's one
+ * cache for the process, shared by every widget.  {@link #prefetch} is meant for
+ * onDataSetChanged: it starts a load for every missing condition at once and waits for them
+ * all, so rows can then be served without blocking.
+ */
+public class WidgetArtCache {
+
+    private static final String LOG_TAG = WidgetArtCache.class.getSimpleName();
+
+    private static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    // Don't let one slow or unreachable art pack hold the widget up forever.
+    private static final long LOAD_TIMEOUT_SECONDS = 15;
+
+    private static WidgetArtCache sInstance;
+
+    private final LruCache<String, Bitmap> mCache;
+
+    public static synchronized WidgetArtCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new WidgetArtCache(DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    WidgetArtCache(int maxBytes) {
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return getByteCount(bitmap);
+            }
+        };
+    }
+
+    /**
+     * @return the art for weatherId from artPack at size, or null if it isn't cached
+     */
+    public Bitmap get(int weatherId, String artPack, int size) {
+        return mCache.get(key(weatherId, artPack, size));
+    }
+
+    /**
+     * Load whatever art for weatherIds isn't cached yet, in parallel, and wait for it.  Must not
+     * be called on the main thread.  Art that can't be loaded is left out of the cache.
+     *
+     * @return how many bitmaps were loaded
+     */
+    public int prefetch(Context context, int[] weatherIds, String artPack, int size) {
+        List<String> keys = new ArrayList<String>();
+        List<FutureTarget<Bitmap>> loads = new ArrayList<FutureTarget<Bitmap>>();
+        for (int weatherId : weatherIds) {
+            String key = key(weatherId, artPack, size);
+            String artUrl = Utility.getArtUrlForWeatherCondition(artPack, weatherId);
+            if (artUrl == null || keys.contains(key) || mCache.get(key) != null) {
+                continue;
+            }
+            keys.add(key);
+            // Glide decodes at about this size, then fits the art into it exactly.
+            loads.add(Glide.with(context)
+                    .load(artUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(size, size));
+        }
+
+        int loaded = 0;
+        for (int i = 0; i < loads.size(); i++) {
+            FutureTarget<Bitmap> load = loads.get(i);
+            try {
+                mCache.put(keys.get(i), load.get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                loaded++;
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                Log.e(LOG_TAG, "Error retrieving widget art for " + keys.get(i), e);
+                load.cancel(true);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the bytes in the cache
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    /**
+     * @return how many bytes of pixels bitmap is, which is what a RemoteViews parcels for it
+     */
+    public static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    static String key(int weatherId, String artPack, int size) {
+        return weatherId + "|" + size + "|" + artPack;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+/*
+    Decodes a version 1 blob written out byte by byte, so the watch notices if its reader
+    drifts from the layout the phone writes.
+ */
+public class TestForecastBlob extends AndroidTestCase {
+
+    private static final byte[] TWO_DAYS = {
+            1, 2,
+            // 2457012, 800, -5.5, 21.3, 40%, 3.7
+            0x00, 0x25, 0x7d, (byte) 0xb4, 0x03, 0x20, (byte) 0xff, (byte) 0xc9, 0x00,
+            (byte) 0xd5, 40, 0x00, 0x25,
+            // 2457013, 501, 12.0, 14.5, 95%, 10.0
+            0x00, 0x25, 0x7d, (byte) 0xb5, 0x01, (byte) 0xf5, 0x00, 0x78, 0x00, (byte) 0x91,
+            95, 0x00, 0x64,
+    };
+
+    public void testDecode() {
+        ForecastBlob.Days days = ForecastBlob.decode(TWO_DAYS);
+        assertNotNull(days);
+        assertEquals(2, days.count);
+
+        assertEquals(2457012, days.julianDays[0]);
+        assertEquals(800, days.weatherIds[0]);
+        assertEquals(-5.5f, days.minTemps[0], 0.01f);
+        assertEquals(21.3f, days.maxTemps[0], 0.01f);
+        assertEquals(40, days.humidities[0]);
+        assertEquals(3.7f, days.windSpeeds[0], 0.01f);
+
+        assertEquals(2457013, days.julianDays[1]);
+        assertEquals(501, days.weatherIds[1]);
+        assertEquals(12f, days.minTemps[1], 0.01f);
+        assertEquals(14.5f, days.maxTemps[1], 0.01f);
+        assertEquals(95, days.humidities[1]);
+        assertEquals(10f, days.windSpeeds[1], 0.01f);
+
+        assertEquals(1, days.indexOf(2457013));
+        assertEquals(-1, days.indexOf(2457014));
+    }
+
+    public void testRejectsOtherVersionsAndShortBlobs() {
+        byte[] blob = TWO_DAYS.clone();
+        blob[0] = ForecastBlob.VERSION + 1;
+        assertNull(ForecastBlob.decode(blob));
+
+        byte[] truncated = new byte[TWO_DAYS.length - 1];
+        System.arraycopy(TWO_DAYS, 0, truncated, 0, truncated.length);
+        assertNull(ForecastBlob.decode(truncated));
+        assertNull(ForecastBlob.decode(null));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Draws the watch face into an offscreen canvas the way the engine does every second, and
+    fails if a frame that doesn't start a new minute allocates anything, or if the cached
+    layers ever show something different from drawing the whole face.
+ */
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWatchFaceRenderer.class.getSimpleName();
+
+    private static final int SIZE = 320;
+    private static final int FRAMES = 50;
+
+    // Some minute on December 20th, 2014, at its first second.
+    private static final long TEST_MINUTE = TimeUnit.MINUTES.toMillis(
+            TimeUnit.MILLISECONDS.toMinutes(1419033600000L) + 10);
+
+    private WatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+    private Bitmap mSurface;
+    private final Rect mBounds = new Rect(0, 0, SIZE, SIZE);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSurface = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mSurface);
+        mRenderer = new WatchFaceRenderer(mContext);
+        mRenderer.applyWindowInsets(true);
+        mRenderer.setTimeZone(TimeZone.getDefault());
+        mRenderer.setWeather("21°", "12°");
+        mRenderer.setWeatherBitmap(Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSurface.recycle();
+        super.tearDown();
+    }
+
+    public void testSteadyStateFrameDoesNotAllocate() {
+        assertNoAllocations();
+    }
+
+    public void testSteadyStateAmbientFrameDoesNotAllocate() {
+        mRenderer.setAmbient(true, true);
+        assertNoAllocations();
+    }
+
+    public void testLayeredFrameMatchesDirectDraw() {
+        assertMatchesDirectDraw(TEST_MINUTE);
+
+        // Each of these has to show up in the cached layer too.
+        mRenderer.setWeather("5°", "-3°");
+        assertMatchesDirectDraw(TEST_MINUTE + TimeUnit.SECONDS.toMillis(1));
+        mRenderer.setWeatherBitmap(null);
+        assertMatchesDirectDraw(TEST_MINUTE + TimeUnit.SECONDS.toMillis(2));
+        mRenderer.setAmbient(true, false);
+        assertMatchesDirectDraw(TEST_MINUTE + TimeUnit.SECONDS.toMillis(3));
+        mRenderer.applyWindowInsets(false);
+        assertMatchesDirectDraw(TEST_MINUTE + TimeUnit.SECONDS.toMillis(4));
+        // The next day.
+        assertMatchesDirectDraw(TEST_MINUTE + TimeUnit.DAYS.toMillis(1));
+    }
+
+    /*
+        Not a pass/fail test: logs the draw time of cached against uncached frames, so the two
+        can be compared on a device or emulator.
+     */
+    public void testFrameTimes() {
+        FrameTimeHistogram direct = measureFrames(false);
+        FrameTimeHistogram layered = measureFrames(true);
+        Log.d(LOG_TAG, "direct:  " + direct);
+        Log.d(LOG_TAG, "layered: " + layered);
+        assertEquals(FRAMES, layered.getFrameCount());
+    }
+
+    public void testTwoDigitNumbers() {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.format(Locale.US, "%02d", i), Utility.formatTwoDigitNumber(i));
+        }
+        // Still formats anything outside the table.
+        assertEquals("100", Utility.formatTwoDigitNumber(100));
+    }
+
+    private void assertMatchesDirectDraw(long now) {
+        mRenderer.setLayerCacheEnabled(false);
+        mRenderer.draw(mCanvas, mBounds, now);
+        Bitmap direct = mSurface.copy(Bitmap.Config.ARGB_8888, false);
+
+        mRenderer.setLayerCacheEnabled(true);
+        mRenderer.draw(mCanvas, mBounds, now);
+        // And again from the layer as drawn the first time.
+        mRenderer.draw(mCanvas, mBounds, now);
+        assertTrue("Error: the layered frame at " + now + " differs from drawing it directly",
+                mSurface.sameAs(direct));
+        direct.recycle();
+    }
+
+    private FrameTimeHistogram measureFrames(boolean layered) {
+        mRenderer.setLayerCacheEnabled(layered);
+        mRenderer.draw(mCanvas, mBounds, TEST_MINUTE);
+
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        for (int second = 1; second <= FRAMES; second++) {
+            long start = System.nanoTime();
+            mRenderer.draw(mCanvas, mBounds, TEST_MINUTE + TimeUnit.SECONDS.toMillis(second));
+            histogram.record(System.nanoTime() - start);
+        }
+        return histogram;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void assertNoAllocations() {
+        // The first frame of the minute looks up the digits and formats the date.
+        mRenderer.draw(mCanvas, mBounds, TEST_MINUTE);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int second = 1; second <= FRAMES; second++) {
+                mRenderer.draw(mCanvas, mBounds, TEST_MINUTE + TimeUnit.SECONDS.toMillis(second));
+            }
+            int allocations = Debug.getThreadAllocCount();
+            assertEquals("Error: " + allocations + " allocations in " + FRAMES + " frames",
+                    0, allocations);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+/*
+    The watch picks its art from the condition id alone, and decodes each picture once, at the
+    size it's drawn.
+ */
+public class TestWeatherIconCache extends AndroidTestCase {
+
+    private static final int CLEAR = 800;
+    private static final int DRIZZLE = 300;
+    private static final int SHOWER_DRIZZLE = 321;
+    private static final int UNKNOWN = 42;
+    // One condition for each of the other pictures.
+    private static final int[] OTHERS = {200, 500, 600, 701, 801, 803};
+
+    private static final int SIZE = 90;
+
+    private WeatherIconCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new WeatherIconCache(mContext.getResources(), SIZE);
+    }
+
+    public void testDecodedOnceAndShared() {
+        assertNull("Error: nothing should be decoded yet", mCache.getCached(CLEAR));
+
+        Bitmap clear = mCache.load(CLEAR);
+        assertNotNull("Error: no art for a clear sky", clear);
+        assertSame(clear, mCache.getCached(CLEAR));
+        assertSame(clear, mCache.load(CLEAR));
+
+        // Both of these use the light rain art.
+        Bitmap drizzle = mCache.load(DRIZZLE);
+        assertNotNull(drizzle);
+        assertNotSame(clear, drizzle);
+        assertSame(drizzle, mCache.getCached(SHOWER_DRIZZLE));
+    }
+
+    public void testDecodedToTheDrawnSize() {
+        Bitmap clear = mCache.load(CLEAR);
+        assertEquals(SIZE, clear.getWidth());
+        assertEquals(SIZE, clear.getHeight());
+    }
+
+    public void testEvictedArtIsDecodedOver() {
+        Bitmap clear = mCache.load(CLEAR);
+        for (int i = 0; i < WeatherIconCache.MAX_ICONS; i++) {
+            mCache.load(OTHERS[i]);
+        }
+        assertNull("Error: the oldest art wasn't evicted", mCache.getCached(CLEAR));
+
+        Bitmap next = mCache.load(OTHERS[WeatherIconCache.MAX_ICONS]);
+        assertSame("Error: the evicted bitmap wasn't reused", clear, next);
+    }
+
+    public void testShownArtIsNeverDecodedOver() {
+        Bitmap clear = mCache.load(CLEAR);
+        mCache.setShown(clear);
+        for (int i = 0; i <= WeatherIconCache.MAX_ICONS; i++) {
+            assertNotSame(clear, mCache.load(OTHERS[i]));
+        }
+    }
+
+    public void testUnknownCondition() {
+        assertNull(mCache.getCached(UNKNOWN));
+        assertNull(mCache.load(UNKNOWN));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    When conditions come in faster than they can be decoded, only the first and the last are
+    decoded, and only the last reaches the face.  A delivery still reaches the face when the
+    face's timer messages are cleared while it waits.
+ */
+public class TestWeatherIconLoader extends AndroidTestCase {
+
+    private static final int CLEAR = 800;
+    private static final int STORM = 200;
+    private static final int RAIN = 500;
+    private static final int SNOW = 600;
+    private static final int FOG = 701;
+
+    private HandlerThread mDrawThread;
+    private BlockingCache mCache;
+    private WeatherIconLoader mLoader;
+
+    private final List<Integer> mDelivered = new ArrayList<>();
+    private CountDownLatch mDelivery;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDrawThread = new HandlerThread("draw");
+        mDrawThread.start();
+        mCache = new BlockingCache(mContext.getResources());
+        mLoader = new WeatherIconLoader(mCache, mDrawThread.getLooper(),
+                new WeatherIconLoader.Callback() {
+                    @Override
+                    public void onIconLoaded(int weatherId, Bitmap icon) {
+                        synchronized (mDelivered) {
+                            mDelivered.add(weatherId);
+                        }
+                        mDelivery.countDown();
+                    }
+                });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLoader.release();
+        mDrawThread.quit();
+        super.tearDown();
+    }
+
+    public void testBurstDecodesOnlyTheLatest() throws InterruptedException {
+        mDelivery = new CountDownLatch(1);
+        mLoader.request(CLEAR);
+        // Wait until the first decode has started and is held.
+        assertTrue(mCache.started.await(5, TimeUnit.SECONDS));
+
+        mLoader.request(STORM);
+        mLoader.request(RAIN);
+        mLoader.request(SNOW);
+        mCache.proceed.countDown();
+
+        assertTrue("Error: the latest art was never delivered",
+                mDelivery.await(5, TimeUnit.SECONDS));
+        // Give a stray delivery the chance to show up.
+        Thread.sleep(200);
+
+        synchronized (mCache.loaded) {
+            assertEquals("[" + CLEAR + ", " + SNOW + "]", mCache.loaded.toString());
+        }
+        synchronized (mDelivered) {
+            assertEquals("[" + SNOW + "]", mDelivered.toString());
+        }
+        assertEquals(2, mLoader.getDecodedCount());
+        assertEquals(2, mLoader.getSkippedCount());
+    }
+
+    public void testCancelledRequestIsNotDelivered() throws InterruptedException {
+        mDelivery = new CountDownLatch(1);
+        mLoader.request(FOG);
+        assertTrue(mCache.started.await(5, TimeUnit.SECONDS));
+        mLoader.cancel();
+        mCache.proceed.countDown();
+
+        assertFalse(mDelivery.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    public void testClearingTheTimerDoesNotDropTheIcon() throws InterruptedException {
+        mDelivery = new CountDownLatch(1);
+        // The face's timer, on the same thread.  Its messages are 0, as a posted Runnable is.
+        Handler timer = new Handler(mDrawThread.getLooper());
+        final CountDownLatch drawing = new CountDownLatch(1);
+        final CountDownLatch drawn = new CountDownLatch(1);
+        // Keep the draw thread busy, so the delivery waits in the queue.
+        timer.post(new Runnable() {
+            @Override
+            public void run() {
+                drawing.countDown();
+                try {
+                    drawn.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(drawing.await(5, TimeUnit.SECONDS));
+
+        mLoader.request(RAIN);
+        mCache.proceed.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mLoader.getDecodedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, mLoader.getDecodedCount());
+
+        // What the face does on every ambient or visibility change.
+        timer.removeMessages(0);
+        drawn.countDown();
+
+        assertTrue("Error: clearing the timer dropped the icon",
+                mDelivery.await(5, TimeUnit.SECONDS));
+        synchronized (mDelivered) {
+            assertEquals("[" + RAIN + "]", mDelivered.toString());
+        }
+    }
+
+    /*
+        Holds the first load until the test lets it go, and records every load.
+     */
+    private static class BlockingCache extends WeatherIconCache {
+        final List<Integer> loaded = new ArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        BlockingCache(Resources resources) {
+            super(resources, 64);
+        }
+
+        @Override
+        Bitmap load(int weatherId) {
+            synchronized (loaded) {
+                loaded.add(weatherId);
+            }
+            started.countDown();
+            try {
+                proceed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.load(weatherId);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the forecast the phone packs into the /weather data item.  The layout is defined by
+ * ForecastBlob in the phone app, which also writes it:
+ *
+ *   byte   version
+ *   byte   number of days
+ *   then for each day, 13 bytes:
+ *   int    Julian day, local to the phone
+ *   short  OpenWeatherMap condition id
+ *   short  minimum temperature, tenths of a degree Celsius
+ *   short  maximum temperature, tenths of a degree Celsius
+ *   byte   humidity, percent
+ *   short  wind speed, tenths
+ *
+ * Everything goes straight into one array per field, with no object per day.
+ */
+final class ForecastBlob {
+
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 2;
+
+    static final class Days {
+        final int count;
+        final int[] julianDays;
+        final int[] weatherIds;
+        final float[] minTemps;
+        final float[] maxTemps;
+        final int[] humidities;
+        final float[] windSpeeds;
+
+        Days(int count) {
+            this.count = count;
+            julianDays = new int[count];
+            weatherIds = new int[count];
+            minTemps = new float[count];
+            maxTemps = new float[count];
+            humidities = new int[count];
+            windSpeeds = new float[count];
+        }
+
+        /**
+         * @return the index of julianDay, or -1 if it isn't in the forecast
+         */
+        int indexOf(int julianDay) {
+            for (int i = 0; i < count; i++) {
+                if (julianDays[i] == julianDay) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private ForecastBlob() {
+    }
+
+    /**
+     * @return the days in blob, or null if it isn't a version this understands
+     */
+    static Days decode(byte[] blob) {
+        if (blob == null || blob.length < HEADER_SIZE || blob[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(blob);
+        buffer.get();
+        Days days = new Days(buffer.get() & 0xff);
+        try {
+            for (int i = 0; i < days.count; i++) {
+                days.julianDays[i] = buffer.getInt();
+                days.weatherIds[i] = buffer.getShort();
+                days.minTemps[i] = buffer.getShort() / 10f;
+                days.maxTemps[i] = buffer.getShort() / 10f;
+                days.humidities[i] = buffer.get();
+                days.windSpeeds[i] = buffer.getShort() / 10f;
+            }
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+        return days;
+    }
+}
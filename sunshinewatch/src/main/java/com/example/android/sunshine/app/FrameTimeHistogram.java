@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.util.Log;
+
+/**
+ * Counts how long the watch face takes to draw each frame, in power of two buckets from a
+ * quarter of a millisecond up.  Recording a frame allocates nothing.
+ *
+ * Every {@link #LOG_INTERVAL_FRAMES} frames the counts are logged and cleared, if the tag is
+ * loggable at DEBUG:
+ *
+ *     adb shell setprop log.tag.FrameTime DEBUG
+ */
+class FrameTimeHistogram {
+    static final String TAG = "FrameTime";
+
+    // A minute of interactive mode.
+    static final int LOG_INTERVAL_FRAMES = 60;
+
+    // Upper bounds of each bucket, in microseconds; the last bucket has none.
+    private static final long[] BUCKET_LIMITS_US = {250, 500, 1000, 2000, 4000, 8000, 16000};
+
+    private final int[] mCounts = new int[BUCKET_LIMITS_US.length + 1];
+    private int mFrames;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && micros >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mFrames++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+
+        if (mFrames >= LOG_INTERVAL_FRAMES) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, toString());
+            }
+            reset();
+        }
+    }
+
+    int getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * @return the upper bound, in microseconds, of the bucket the given fraction of frames
+     * fall within, or Long.MAX_VALUE if that's the last bucket
+     */
+    long getPercentileMicros(double fraction) {
+        long target = (long) Math.ceil(mFrames * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_LIMITS_US.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return BUCKET_LIMITS_US[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mFrames = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(mFrames).append(" frames");
+        if (mFrames > 0) {
+            builder.append(", mean ").append(mTotalNanos / mFrames / 1000).append("us")
+                    .append(", max ").append(mMaxNanos / 1000).append("us")
+                    .append(", p50 <").append(formatLimit(getPercentileMicros(0.5)))
+                    .append(", p99 <").append(formatLimit(getPercentileMicros(0.99)));
+        }
+        builder.append(" |");
+        for (int i = 0; i < mCounts.length; i++) {
+            builder.append(' ');
+            builder.append(i < BUCKET_LIMITS_US.length
+                    ? "<" + BUCKET_LIMITS_US[i] + "us" : ">=" + BUCKET_LIMITS_US[i - 1] + "us");
+            builder.append(':').append(mCounts[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String formatLimit(long micros) {
+        return micros == Long.MAX_VALUE ? "inf" : micros + "us";
+    }
+}
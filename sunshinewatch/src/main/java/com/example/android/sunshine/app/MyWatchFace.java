@@ -20,20 +20,15 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
-import android.support.v4.content.ContextCompat;
 import android.support.wearable.watchface.CanvasWatchFaceService;
+import android.text.format.Time;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
 import android.view.Gravity;
@@ -42,7 +37,6 @@ import android.view.WindowInsets;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
@@ -51,12 +45,7 @@ import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -65,9 +54,6 @@ import java.util.concurrent.TimeUnit;
  * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
  */
 public class MyWatchFace extends CanvasWatchFaceService {
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -108,45 +94,34 @@ public class MyWatchFace extends CanvasWatchFaceService {
     private class Engine extends CanvasWatchFaceService.Engine {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
-        Paint mBackgroundPaint;
         boolean mAmbient;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                initFormats();
+                mRenderer.setTimeZone(TimeZone.getDefault());
+                mTime.clear(TimeZone.getDefault().getID());
             }
         };
         int mTapCount;
 
-        float mXOffset;
-        float mClockOffset;
-        float mDateOffset;
-        private float mTempPadding;
-        float mWeatherBitmapWidth;
-
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
-        private Calendar mCalendar;
-        private Date mDate;
-        private SimpleDateFormat mDateFormat;
-        private Paint mMinutePaint;
-        private Paint mHourPaint;
-        private Paint mColonPaint;
-        private float mColonWidth;
-        private String mColonString=":";
-        private Paint mDatePaint;
-        private Paint mSepratorPaint;
-        private Bitmap mWheatherBitmap=null;
-        private Paint mBoldTempPaint;
-        private Paint mTempPaint;
-        private String maxTemp="";
-        private String minTemp="";
+        private WatchFaceRenderer mRenderer;
+        private final FrameTimeHistogram mFrameTimes = new FrameTimeHistogram();
+        private WeatherIconCache mIconCache;
+        private WeatherIconLoader mIconLoader;
+        private int mWeatherId = -1;
         private GoogleApiClient mGoogleApiClient;
-        private static final String TEMP_ICON_KEY = "com.example.android.sunshine.key.icon";
+        private static final String WEATHER_ID_KEY = "com.example.android.sunshine.key.weather_id";
+        private static final String FORECAST_KEY = "com.example.android.sunshine.key.forecast";
+
+        // The days ahead from the last /weather item, and which of them is on screen.
+        private ForecastBlob.Days mForecast;
+        private int mShownJulianDay;
+        private final Time mTime = new Time();
         private static final String TEMP_MIN_KEY = "com.example.android.sunshine.key.temp.min";
         private static final String TEMP_MAX_KEY = "com.example.android.sunshine.key.temp.max";
 
@@ -161,24 +136,13 @@ public class MyWatchFace extends CanvasWatchFaceService {
                         DataItem item = event.getDataItem();
                         if (item.getUri().getPath().compareTo("/weather") == 0) {
                             DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                            minTemp = Math.round(dataMap.getDouble(TEMP_MIN_KEY)) + "°";
-                            maxTemp = Math.round(dataMap.getDouble(TEMP_MAX_KEY)) + "°";
-                            Asset profileAsset = dataMap.getAsset(TEMP_ICON_KEY);
-                            //load bitmap in another thread
-                            new AsyncTask<Asset,Void,Bitmap>() {
-
-                                @Override
-                                protected Bitmap doInBackground(Asset... profileAsset) {
-                                    mWheatherBitmap = loadBitmapFromAsset(profileAsset[0]);
-                                    return mWheatherBitmap;
-                                }
-
-                                @Override
-                                protected void onPostExecute(Bitmap bitmap) {
-                                    super.onPostExecute(bitmap);
-                                    invalidate();
-                                }
-                            }.execute(profileAsset);
+                            mRenderer.setWeather(
+                                    Math.round(dataMap.getDouble(TEMP_MAX_KEY)) + "°",
+                                    Math.round(dataMap.getDouble(TEMP_MIN_KEY)) + "°");
+                            setWeatherId(dataMap.getInt(WEATHER_ID_KEY, -1));
+                            mForecast = ForecastBlob.decode(dataMap.getByteArray(FORECAST_KEY));
+                            mShownJulianDay = getJulianDay(System.currentTimeMillis());
+                            invalidate();
                         }
                     } else if (event.getType() == DataEvent.TYPE_DELETED) {
                         // DataItem deleted
@@ -187,20 +151,26 @@ public class MyWatchFace extends CanvasWatchFaceService {
             }
         };
 
-        public Bitmap loadBitmapFromAsset(Asset asset) {
-            if (asset == null) {
-                throw new IllegalArgumentException("Asset must be non-null");
+        /**
+         * Show the art for weatherId, decoding it in another thread the first time it's seen.
+         */
+        private void setWeatherId(int weatherId) {
+            if (weatherId == mWeatherId) {
+                return;
             }
-
-            // convert asset into a file descriptor and block until it's ready
-            InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                    mGoogleApiClient, asset).await().getInputStream();
-
-            if (assetInputStream == null) {
-                return null;
+            mWeatherId = weatherId;
+            Bitmap icon = mIconCache.getCached(weatherId);
+            if (icon != null || Utility.getArtResourceForWeatherCondition(weatherId) == -1) {
+                mIconLoader.cancel();
+                showWeatherBitmap(icon);
+                return;
             }
-            // decode the stream into a bitmap
-             return BitmapFactory.decodeStream(assetInputStream);
+            mIconLoader.request(weatherId);
+        }
+
+        private void showWeatherBitmap(Bitmap icon) {
+            mIconCache.setShown(icon);
+            mRenderer.setWeatherBitmap(icon);
         }
 
         @Override
@@ -215,44 +185,17 @@ public class MyWatchFace extends CanvasWatchFaceService {
                     .setAcceptsTapEvents(true)
                     .build());
 
-            final Resources resources = MyWatchFace.this.getResources();
-            mClockOffset = resources.getDimension(R.dimen.digital_clock_offset);
-            mDateOffset = resources.getDimension(R.dimen.digital_date_offset);
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(ContextCompat.getColor(MyWatchFace.this,R.color.primary));
-
-            mDatePaint = new Paint();
-            mDatePaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mDatePaint.setTextAlign(Paint.Align.CENTER);
-
-            mHourPaint = new Paint();
-            mHourPaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mHourPaint.setTextAlign(Paint.Align.RIGHT);
-
-            mMinutePaint = new Paint();
-            mMinutePaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mMinutePaint.setTypeface(Typeface.create(Typeface.DEFAULT,Typeface.NORMAL));
-
-            mBoldTempPaint = new Paint();
-            mBoldTempPaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mBoldTempPaint.setTypeface(Typeface.create(Typeface.DEFAULT_BOLD, Typeface.BOLD));
-
-            mTempPaint = new Paint();
-            mTempPaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            mSepratorPaint = new Paint();
-            mSepratorPaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mSepratorPaint.setStrokeWidth(0.5f);
-
-            mColonPaint = new Paint();
-            mColonPaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mColonPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.NORMAL));
-            mColonPaint.setTextAlign(Paint.Align.CENTER);
-
-            mCalendar = Calendar.getInstance();
-            mDate = new Date();
-            initFormats();
+            mRenderer = new WatchFaceRenderer(MyWatchFace.this);
+            mIconCache = new WeatherIconCache(getResources(),
+                    WatchFaceRenderer.getWeatherBitmapSize(getResources()));
+            mIconLoader = new WeatherIconLoader(mIconCache, Looper.getMainLooper(),
+                    new WeatherIconLoader.Callback() {
+                        @Override
+                        public void onIconLoaded(int weatherId, Bitmap icon) {
+                            showWeatherBitmap(icon);
+                            invalidate();
+                        }
+                    });
 
             mGoogleApiClient = new GoogleApiClient.Builder(getApplicationContext())
                     .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
@@ -280,25 +223,14 @@ public class MyWatchFace extends CanvasWatchFaceService {
             mGoogleApiClient.connect();
         }
 
-        private void initFormats() {
-            mDateFormat = new SimpleDateFormat("EEE, MMM dd yyyy", Locale.getDefault());
-            mDateFormat.setCalendar(mCalendar);
-        }
-
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mIconLoader.release();
+            mRenderer.release();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -307,7 +239,8 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mRenderer.setTimeZone(TimeZone.getDefault());
+                mTime.clear(TimeZone.getDefault().getID());
             } else {
                 unregisterReceiver();
             }
@@ -339,23 +272,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
             super.onApplyWindowInsets(insets);
 
             // Load resources that have alternate values for round watches.
-            Resources resources = MyWatchFace.this.getResources();
-            boolean isRound = insets.isRound();
-            mXOffset = resources.getDimension(isRound
-                    ? R.dimen.digital_x_offset_round : R.dimen.digital_x_offset);
-            float textSize = resources.getDimension(isRound
-                    ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
-            float tempSize=resources.getDimension(R.dimen.temp_size);
-            mTempPadding=resources.getDimensionPixelOffset(R.dimen.temp_padding);
-            mWeatherBitmapWidth =resources.getDimension(R.dimen.whether_bmp_width)+mTempPadding;
-            mDatePaint.setTextSize(resources.getDimension(R.dimen.digital_date_text_size));
-            mHourPaint.setTextSize(textSize);
-            mMinutePaint.setTextSize(textSize);
-            mColonPaint.setTextSize(textSize);
-            mBoldTempPaint.setTextSize(tempSize);
-            mTempPaint.setTextSize(tempSize);
-
-            mColonWidth= mColonPaint.measureText(mColonString);
+            mRenderer.applyWindowInsets(insets.isRound());
         }
 
         @Override
@@ -367,27 +284,41 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            showForecastDay(System.currentTimeMillis());
             invalidate();
         }
 
+        /**
+         * Once the day the phone last sent has passed, show that day's forecast from what the
+         * phone sent ahead instead of waiting for the next sync.
+         */
+        private void showForecastDay(long now) {
+            int julianDay = getJulianDay(now);
+            if (mForecast == null || julianDay == mShownJulianDay) {
+                return;
+            }
+            int index = mForecast.indexOf(julianDay);
+            if (index == -1) {
+                return;
+            }
+            mShownJulianDay = julianDay;
+            mRenderer.setWeather(
+                    Math.round(mForecast.maxTemps[index]) + "°",
+                    Math.round(mForecast.minTemps[index]) + "°");
+            setWeatherId(mForecast.weatherIds[index]);
+        }
+
+        private int getJulianDay(long millis) {
+            mTime.set(millis);
+            return Time.getJulianDay(millis, mTime.gmtoff);
+        }
+
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mMinutePaint.setAntiAlias(!inAmbientMode);
-                    mHourPaint.setAntiAlias(!inAmbientMode);
-                    mBackgroundPaint.setAntiAlias(!inAmbientMode);
-                    mBoldTempPaint.setAntiAlias(!inAmbientMode);
-                    mTempPaint.setAntiAlias(!inAmbientMode);
-                    mColonPaint.setAntiAlias(!inAmbientMode);
-                }
-                if(mAmbient) {
-                    mBackgroundPaint.setColor(Color.BLACK);
-                } else {
-                    mBackgroundPaint.setColor(ContextCompat.getColor(MyWatchFace.this,R.color.primary));
-                }
+                mRenderer.setAmbient(inAmbientMode, mLowBitAmbient);
                 invalidate();
             }
 
@@ -422,64 +353,9 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            mDate.setTime(now);
-            //boolean is24Hour = DateFormat.is24HourFormat(MyWatchFace.this);
-
-            // Draw the background.
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-
-            float centerX = bounds.centerX();
-            float centerY = bounds.centerY();
-            String hourString="";
-          //  if (is24Hour) {
-                hourString = Utility.formatTwoDigitNumber(mCalendar.get(Calendar.HOUR_OF_DAY));
-          //  }
-            /**
-             * not required might use full taken from sample app
-
-             else {
-                    int hour = mCalendar.get(Calendar.HOUR);
-                    if (hour == 0) {
-                        hour = 12;
-                    }
-                }
-
-             */
-
-            // Draw the hours.
-            canvas.drawText(hourString, centerX-mColonWidth, centerY-mClockOffset, mHourPaint);
-
-            //draw colon
-            canvas.drawText(mColonString, centerX, centerY-mClockOffset, mColonPaint);
-
-            // Draw the minutes.
-            String minuteString = Utility.formatTwoDigitNumber(mCalendar.get(Calendar.MINUTE));
-            canvas.drawText(minuteString, centerX+mColonWidth, centerY- mClockOffset, mMinutePaint);
-
-            //draw date
-            canvas.drawText(mDateFormat.format(mDate),centerX,centerY- mDateOffset,mDatePaint);
-
-            //draw separator
-            float separatorSize=bounds.width()/10;
-            canvas.drawLine(centerX-separatorSize,centerY,centerX+separatorSize,centerY,mSepratorPaint);
-
-            float maxTempWidth=mBoldTempPaint.measureText(maxTemp);
-
-            //draw bitmap
-            if(mWheatherBitmap!=null && !mAmbient) {
-                canvas.drawBitmap(mWheatherBitmap, null, new Rect(
-                        (int) (centerX-mWeatherBitmapWidth),
-                        (int) (centerY+mDateOffset),
-                        (int) (centerX),
-                        (int) (centerY+mDateOffset+mWeatherBitmapWidth)
-                ), null);
-            }
-
-            //draw temp
-            canvas.drawText(maxTemp,centerX+mTempPadding,centerY+mClockOffset,mBoldTempPaint);
-            canvas.drawText(minTemp,centerX+maxTempWidth+(mTempPadding*2),centerY+mClockOffset,mTempPaint);
+            long start = System.nanoTime();
+            mRenderer.draw(canvas, bounds, System.currentTimeMillis());
+            mFrameTimes.record(System.nanoTime() - start);
         }
 
         /**
@@ -9,11 +9,57 @@ public class Utility {
     private final static String mAmString="AM";
     private final static String mPmString="PM";
 
+    // "00" to "99", so the watch face never formats a number while drawing.
+    private final static String[] TWO_DIGIT_NUMBERS = new String[100];
+    static {
+        for (int i = 0; i < TWO_DIGIT_NUMBERS.length; i++) {
+            TWO_DIGIT_NUMBERS[i] = new String(new char[]{(char) ('0' + i / 10), (char) ('0' + i % 10)});
+        }
+    }
+
     static String getAmPmString(int amPm) {
         return amPm == Calendar.AM ? mAmString : mPmString;
     }
 
     static String formatTwoDigitNumber(int hour) {
+        if (hour >= 0 && hour < TWO_DIGIT_NUMBERS.length) {
+            return TWO_DIGIT_NUMBERS[hour];
+        }
         return String.format("%02d", hour);
     }
+
+    /**
+     * The same art the phone app shows for a weather condition id returned by the
+     * OpenWeatherMap call.
+     *
+     * @return resource id for the corresponding art. -1 if no relation is found.
+     */
+    static int getArtResourceForWeatherCondition(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
 }
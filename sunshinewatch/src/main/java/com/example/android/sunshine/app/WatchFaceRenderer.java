@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.v4.content.ContextCompat;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws {@link MyWatchFace}: the time, the date, and today's weather from the phone.
+ *
+ * onDraw runs every second in interactive mode, so a frame in the same minute as the one before
+ * it allocates nothing.  The clock digits come from a table and are only looked up when the
+ * minute changes, the date is formatted once a day, the temperatures are measured when they
+ * arrive and the geometry is worked out when the bounds or insets change.
+ *
+ * Everything but the clock (the background, date, separator, weather icon and temperatures)
+ * only changes with the day, the ambient mode, the insets or the weather, so it is drawn once
+ * into an offscreen layer.  A frame copies the layer and draws the clock over it.
+ */
+class WatchFaceRenderer {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private static final long MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final String COLON_STRING = ":";
+
+    private final Context mContext;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mDatePaint;
+    private final Paint mHourPaint;
+    private final Paint mMinutePaint;
+    private final Paint mColonPaint;
+    private final Paint mSeparatorPaint;
+    private final Paint mBoldTempPaint;
+    private final Paint mTempPaint;
+
+    private final float mClockOffset;
+    private final float mDateOffset;
+    private float mTempPadding;
+    private float mWeatherBitmapWidth;
+    private float mColonWidth;
+
+    private final Calendar mCalendar;
+    private final Date mDate;
+    private SimpleDateFormat mDateFormat;
+
+    // The clock as of the last frame, good until mNextMinuteMillis.
+    private long mNextMinuteMillis;
+    private String mHourString = "";
+    private String mMinuteString = "";
+    private int mDateDay = -1;
+    private String mDateString = "";
+
+    private String mMaxTemp = "";
+    private String mMinTemp = "";
+    private float mMaxTempWidth;
+    private Bitmap mWeatherBitmap;
+
+    private boolean mAmbient;
+
+    // Everything but the clock, redrawn only when mLayerValid is cleared.
+    private boolean mLayerCacheEnabled = true;
+    private boolean mLayerValid;
+    private Bitmap mLayer;
+    private Canvas mLayerCanvas;
+
+    // Geometry for the last bounds drawn into.
+    private boolean mLayoutValid;
+    private int mLayoutWidth;
+    private int mLayoutHeight;
+    private float mCenterX;
+    private float mCenterY;
+    private float mSeparatorSize;
+    private final Rect mWeatherBounds = new Rect();
+
+    WatchFaceRenderer(Context context) {
+        mContext = context;
+        Resources resources = context.getResources();
+        mClockOffset = resources.getDimension(R.dimen.digital_clock_offset);
+        mDateOffset = resources.getDimension(R.dimen.digital_date_offset);
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(ContextCompat.getColor(context, R.color.primary));
+
+        int textColor = ContextCompat.getColor(context, R.color.digital_text);
+        mDatePaint = createTextPaint(textColor);
+        mDatePaint.setTextAlign(Paint.Align.CENTER);
+
+        mHourPaint = createTextPaint(textColor);
+        mHourPaint.setTextAlign(Paint.Align.RIGHT);
+
+        mMinutePaint = createTextPaint(textColor);
+        mMinutePaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.NORMAL));
+
+        mBoldTempPaint = createTextPaint(textColor);
+        mBoldTempPaint.setTypeface(Typeface.create(Typeface.DEFAULT_BOLD, Typeface.BOLD));
+
+        mTempPaint = createTextPaint(textColor);
+
+        mSeparatorPaint = createTextPaint(textColor);
+        mSeparatorPaint.setStrokeWidth(0.5f);
+
+        mColonPaint = createTextPaint(textColor);
+        mColonPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.NORMAL));
+        mColonPaint.setTextAlign(Paint.Align.CENTER);
+
+        mCalendar = Calendar.getInstance();
+        mDate = new Date();
+        initFormats();
+    }
+
+    private static Paint createTextPaint(int textColor) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    private void initFormats() {
+        mDateFormat = new SimpleDateFormat("EEE, MMM dd yyyy", Locale.getDefault());
+        mDateFormat.setCalendar(mCalendar);
+    }
+
+    /**
+     * Size everything for a round or square screen.
+     */
+    void applyWindowInsets(boolean isRound) {
+        Resources resources = mContext.getResources();
+        float textSize = resources.getDimension(isRound
+                ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
+        float tempSize = resources.getDimension(R.dimen.temp_size);
+        mTempPadding = resources.getDimensionPixelOffset(R.dimen.temp_padding);
+        mWeatherBitmapWidth = getWeatherBitmapSize(resources);
+        mDatePaint.setTextSize(resources.getDimension(R.dimen.digital_date_text_size));
+        mHourPaint.setTextSize(textSize);
+        mMinutePaint.setTextSize(textSize);
+        mColonPaint.setTextSize(textSize);
+        mBoldTempPaint.setTextSize(tempSize);
+        mTempPaint.setTextSize(tempSize);
+
+        mColonWidth = mColonPaint.measureText(COLON_STRING);
+        mMaxTempWidth = mBoldTempPaint.measureText(mMaxTemp);
+        mLayoutValid = false;
+        mLayerValid = false;
+    }
+
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        if (lowBitAmbient) {
+            mMinutePaint.setAntiAlias(!ambient);
+            mHourPaint.setAntiAlias(!ambient);
+            mBackgroundPaint.setAntiAlias(!ambient);
+            mBoldTempPaint.setAntiAlias(!ambient);
+            mTempPaint.setAntiAlias(!ambient);
+            mColonPaint.setAntiAlias(!ambient);
+        }
+        if (ambient) {
+            mBackgroundPaint.setColor(Color.BLACK);
+        } else {
+            mBackgroundPaint.setColor(ContextCompat.getColor(mContext, R.color.primary));
+        }
+        mLayerValid = false;
+    }
+
+    /**
+     * Pick up a new time zone, or the same one again after the renderer wasn't visible.
+     */
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        initFormats();
+        // Redo the clock and the date on the next frame.
+        mNextMinuteMillis = 0;
+        mDateDay = -1;
+    }
+
+    void setWeather(String maxTemp, String minTemp) {
+        mMaxTemp = maxTemp;
+        mMinTemp = minTemp;
+        mMaxTempWidth = mBoldTempPaint.measureText(maxTemp);
+        mLayerValid = false;
+    }
+
+    /**
+     * @return the width and height the weather art is drawn at, in pixels
+     */
+    static int getWeatherBitmapSize(Resources resources) {
+        return (int) (resources.getDimension(R.dimen.whether_bmp_width)
+                + resources.getDimensionPixelOffset(R.dimen.temp_padding));
+    }
+
+    void setWeatherBitmap(Bitmap bitmap) {
+        mWeatherBitmap = bitmap;
+        mLayerValid = false;
+    }
+
+    /**
+     * Draw every layer on every frame instead, to compare against.
+     */
+    void setLayerCacheEnabled(boolean enabled) {
+        mLayerCacheEnabled = enabled;
+        mLayoutValid = false;
+    }
+
+    /**
+     * Let go of the offscreen layer.  It's made again on the next frame.
+     */
+    void release() {
+        if (mLayer != null) {
+            mLayer.recycle();
+            mLayer = null;
+            mLayerCanvas = null;
+        }
+        mLayoutValid = false;
+    }
+
+    void draw(Canvas canvas, Rect bounds, long now) {
+        if (now >= mNextMinuteMillis || now < mNextMinuteMillis - MINUTE_IN_MILLIS) {
+            updateTime(now);
+        }
+        if (!mLayoutValid || bounds.width() != mLayoutWidth || bounds.height() != mLayoutHeight) {
+            updateLayout(bounds);
+        }
+
+        if (mLayerCacheEnabled) {
+            if (!mLayerValid) {
+                drawLayer(mLayerCanvas);
+                mLayerValid = true;
+            }
+            canvas.drawBitmap(mLayer, 0, 0, null);
+        } else {
+            drawLayer(canvas);
+        }
+
+        // Draw the hours, the colon and the minutes.
+        canvas.drawText(mHourString, mCenterX - mColonWidth, mCenterY - mClockOffset, mHourPaint);
+        canvas.drawText(COLON_STRING, mCenterX, mCenterY - mClockOffset, mColonPaint);
+        canvas.drawText(mMinuteString, mCenterX + mColonWidth, mCenterY - mClockOffset,
+                mMinutePaint);
+    }
+
+    /**
+     * Everything that doesn't change with the minute.
+     */
+    private void drawLayer(Canvas canvas) {
+        // Draw the background.
+        canvas.drawRect(0, 0, mLayoutWidth, mLayoutHeight, mBackgroundPaint);
+
+        //draw date
+        canvas.drawText(mDateString, mCenterX, mCenterY - mDateOffset, mDatePaint);
+
+        //draw separator
+        canvas.drawLine(mCenterX - mSeparatorSize, mCenterY, mCenterX + mSeparatorSize, mCenterY,
+                mSeparatorPaint);
+
+        //draw bitmap
+        if (mWeatherBitmap != null && !mAmbient) {
+            canvas.drawBitmap(mWeatherBitmap, null, mWeatherBounds, null);
+        }
+
+        //draw temp
+        canvas.drawText(mMaxTemp, mCenterX + mTempPadding, mCenterY + mClockOffset,
+                mBoldTempPaint);
+        canvas.drawText(mMinTemp, mCenterX + mMaxTempWidth + (mTempPadding * 2),
+                mCenterY + mClockOffset, mTempPaint);
+    }
+
+    /**
+     * Look up the digits for the minute that now falls in, and the date if the day changed.
+     */
+    private void updateTime(long now) {
+        mCalendar.setTimeInMillis(now);
+        mHourString = Utility.formatTwoDigitNumber(mCalendar.get(Calendar.HOUR_OF_DAY));
+        mMinuteString = Utility.formatTwoDigitNumber(mCalendar.get(Calendar.MINUTE));
+
+        int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (day != mDateDay) {
+            mDateDay = day;
+            mDate.setTime(now);
+            mDateString = mDateFormat.format(mDate);
+            mLayerValid = false;
+        }
+
+        // Every time zone in use is offset from UTC by whole minutes.
+        mNextMinuteMillis = (now / MINUTE_IN_MILLIS + 1) * MINUTE_IN_MILLIS;
+    }
+
+    private void updateLayout(Rect bounds) {
+        mLayoutWidth = bounds.width();
+        mLayoutHeight = bounds.height();
+        mCenterX = bounds.centerX();
+        mCenterY = bounds.centerY();
+        mSeparatorSize = mLayoutWidth / 10;
+        mWeatherBounds.set(
+                (int) (mCenterX - mWeatherBitmapWidth),
+                (int) (mCenterY + mDateOffset),
+                (int) (mCenterX),
+                (int) (mCenterY + mDateOffset + mWeatherBitmapWidth));
+
+        if (mLayerCacheEnabled && (mLayer == null
+                || mLayer.getWidth() != mLayoutWidth || mLayer.getHeight() != mLayoutHeight)) {
+            release();
+            mLayer = Bitmap.createBitmap(mLayoutWidth, mLayoutHeight, Bitmap.Config.ARGB_8888);
+            mLayerCanvas = new Canvas(mLayer);
+        }
+        mLayerValid = false;
+        mLayoutValid = true;
+    }
+}
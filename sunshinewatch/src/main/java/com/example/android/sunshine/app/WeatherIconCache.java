@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The weather art for the watch face, by OpenWeatherMap condition id.
+ *
+ * The art ships with the watch app, so the phone only has to send the condition id.  Each
+ * picture is decoded the first time a condition that uses it comes in and kept after that;
+ * conditions that share a picture share the decoded bitmap.
+ *
+ * Pictures are decoded straight to the size the face draws them at, subsampling first so the
+ * full-size art is never in memory.  A picture that falls out of the cache is kept to decode
+ * the next one into, unless it is still the one on screen.
+ */
+class WeatherIconCache {
+    private static final String TAG = "WeatherIconCache";
+
+    // The face shows one picture at a time and changes it at most a few times a day.
+    static final int MAX_ICONS = 4;
+
+    private final Resources mResources;
+    private final int mSize;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private Bitmap mReusable;
+    private Bitmap mShown;
+
+    private final LruCache<Integer, Bitmap> mIcons = new LruCache<Integer, Bitmap>(MAX_ICONS) {
+        @Override
+        protected void entryRemoved(boolean evicted, Integer key, Bitmap oldValue,
+                                    Bitmap newValue) {
+            if (evicted) {
+                synchronized (mLock) {
+                    mReusable = oldValue;
+                }
+            }
+        }
+    };
+
+    /**
+     * @param size the width and height to decode every picture to, in pixels
+     */
+    WeatherIconCache(Resources resources, int size) {
+        mResources = resources;
+        mSize = size;
+    }
+
+    /**
+     * @return the art for weatherId if it has already been decoded, otherwise null
+     */
+    Bitmap getCached(int weatherId) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artResourceId == -1) {
+            return null;
+        }
+        return mIcons.get(artResourceId);
+    }
+
+    /**
+     * The art for weatherId, decoding it if this is the first time it's needed.  Decoding
+     * takes a while, so call this off the main thread.
+     *
+     * @return null if there's no art for that condition
+     */
+    Bitmap load(int weatherId) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artResourceId == -1) {
+            return null;
+        }
+        Bitmap icon = mIcons.get(artResourceId);
+        if (icon == null) {
+            icon = decode(artResourceId);
+            if (icon != null) {
+                mIcons.put(artResourceId, icon);
+            }
+        }
+        return icon;
+    }
+
+    /**
+     * Note which picture the face is drawing, so it's never decoded over.  Call this before
+     * handing a bitmap from here to the renderer.
+     */
+    void setShown(Bitmap icon) {
+        synchronized (mLock) {
+            mShown = icon;
+        }
+    }
+
+    private Bitmap decode(int artResourceId) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        decodeStream(artResourceId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Halve as far as possible without going below the size drawn, then scale the rest of
+        // the way while decoding.
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mSize
+                && options.outHeight / (sampleSize * 2) >= mSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inScaled = true;
+        options.inDensity = options.outWidth / sampleSize;
+        options.inTargetDensity = mSize;
+        options.inMutable = true;
+
+        Bitmap reusable;
+        synchronized (mLock) {
+            reusable = mReusable != mShown ? mReusable : null;
+            mReusable = null;
+        }
+        options.inBitmap = reusable;
+        try {
+            return decodeStream(artResourceId, options);
+        } catch (IllegalArgumentException e) {
+            // The old bitmap can't hold this one after all.
+            options.inBitmap = null;
+            return decodeStream(artResourceId, options);
+        }
+    }
+
+    private Bitmap decodeStream(int artResourceId, BitmapFactory.Options options) {
+        InputStream in = mResources.openRawResource(artResourceId);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to close art " + artResourceId, e);
+            }
+        }
+    }
+}
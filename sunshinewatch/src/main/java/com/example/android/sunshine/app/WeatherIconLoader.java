@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decodes weather art for the watch face on one background thread, one picture at a time.
+ *
+ * Only the latest request matters: a request made while another is waiting replaces it, so
+ * when conditions come in a burst only the last of them is decoded.  The result is posted to
+ * the looper given, which is the thread that draws, and only if nothing newer was asked for
+ * in the meantime.
+ *
+ * The loader posts through a handler of its own, so a caller clearing messages from another
+ * handler on the same looper can't drop a delivery along with them.
+ */
+class WeatherIconLoader {
+
+    interface Callback {
+        /**
+         * Called on the handler's thread with the art for the latest request.
+         *
+         * @param icon null if there's no art for that condition
+         */
+        void onIconLoaded(int weatherId, Bitmap icon);
+    }
+
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final WeatherIconCache mCache;
+    private final Handler mHandler;
+    private final Callback mCallback;
+    private final ExecutorService mExecutor;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock, as are the counters below.
+    private int mWaiting = NONE;
+    private int mLatest = NONE;
+    private boolean mRunning;
+    private boolean mReleased;
+
+    private int mDecodedCount;
+    private int mSkippedCount;
+
+    private final Runnable mDecodeTask = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final int weatherId;
+                synchronized (mLock) {
+                    if (mWaiting == NONE || mReleased) {
+                        mRunning = false;
+                        return;
+                    }
+                    weatherId = mWaiting;
+                    mWaiting = NONE;
+                }
+
+                final Bitmap icon = mCache.load(weatherId);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mLock) {
+                            if (weatherId != mLatest || mReleased) {
+                                return;
+                            }
+                        }
+                        mCallback.onIconLoaded(weatherId, icon);
+                    }
+                });
+                // Counted once the delivery is on its way.
+                synchronized (mLock) {
+                    mDecodedCount++;
+                }
+            }
+        }
+    };
+
+    WeatherIconLoader(WeatherIconCache cache, Looper looper, Callback callback) {
+        mCache = cache;
+        mHandler = new Handler(looper);
+        mCallback = callback;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "WeatherIconLoader");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Decode the art for weatherId, dropping whatever request is still waiting.
+     */
+    void request(int weatherId) {
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+            if (mWaiting != NONE) {
+                mSkippedCount++;
+            }
+            mWaiting = weatherId;
+            mLatest = weatherId;
+            if (!mRunning) {
+                mRunning = true;
+                mExecutor.execute(mDecodeTask);
+            }
+        }
+    }
+
+    /**
+     * Forget any request, so nothing decoded before this is delivered.  Call when the art for
+     * the current condition was found without decoding.
+     */
+    void cancel() {
+        synchronized (mLock) {
+            if (mWaiting != NONE) {
+                mSkippedCount++;
+            }
+            mWaiting = NONE;
+            mLatest = NONE;
+        }
+    }
+
+    /**
+     * Stop the decoding thread.  Nothing is delivered after this.
+     */
+    void release() {
+        synchronized (mLock) {
+            mReleased = true;
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return how many pictures have been decoded (or found already decoded)
+     */
+    int getDecodedCount() {
+        synchronized (mLock) {
+            return mDecodedCount;
+        }
+    }
+
+    /**
+     * @return how many requests were replaced before they were decoded
+     */
+    int getSkippedCount() {
+        synchronized (mLock) {
+            return mSkippedCount;
+        }
+    }
+}